@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import ejp.Database.CallableParameter;
+import ejp.Database.InOutParameter;
+import ejp.Database.InParameter;
+import ejp.Database.OutParameter;
+import ejp.ORMSupport.NullValue;
+import ejp.interfaces.AsciiStream;
+import ejp.interfaces.BinaryStream;
+import ejp.interfaces.CharacterStream;
+import ejp.utilities.PropertyAccessor;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.Ref;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A binder plan for one arrangement of stored procedure parameters (the
+ * kind, position, SQL type and scale of each IN, OUT and IN/OUT parameter).
+ * It's compiled once and kept with the cached CallableStatement, so repeated
+ * calls bind IN values with a switch on a precomputed setter instead of a
+ * chain of instanceof tests, and don't register OUT parameters again.  It
+ * also maps named OUT parameters into an object's setters, reading each one
+ * with the typed getter that matches the setter (primitives are boxed for the
+ * reflective setter call).
+ */
+
+final class CallableBinder
+  {
+    private static final int OBJECT = 0, NULL = 1, STRING = 2, BIG_DECIMAL = 3, DATE = 4, TIME = 5, TIMESTAMP = 6,
+                             ARRAY = 7, BLOB = 8, CLOB = 9, REF = 10, URL_VALUE = 11, ASCII_STREAM = 12,
+                             BINARY_STREAM = 13, CHARACTER_STREAM = 14;
+    private static final int GET_OBJECT = 0, GET_STRING = 1, GET_INT = 2, GET_LONG = 3, GET_DOUBLE = 4, GET_FLOAT = 5,
+                             GET_SHORT = 6, GET_BYTE = 7, GET_BOOLEAN = 8, GET_BIG_DECIMAL = 9, GET_DATE = 10,
+                             GET_TIME = 11, GET_TIMESTAMP = 12;
+
+    private int[] positions, sqlTypes, scales, kinds;
+    private String[] names;
+    private boolean[] in, out;
+    private Class[] valueClasses;
+    private int[] setters;
+    private boolean registered;
+    private Map<SqlShape, OutMapping[]> outMappings = new ConcurrentHashMap<SqlShape, OutMapping[]>();
+
+    static class OutMapping
+      {
+        int position, getter;
+        Method method;
+        boolean primitive;
+      }
+
+    private CallableBinder(CallableParameter[] parameters)
+      {
+        int length = parameters.length;
+
+        positions = new int[length];
+        sqlTypes = new int[length];
+        scales = new int[length];
+        kinds = new int[length];
+        names = new String[length];
+        in = new boolean[length];
+        out = new boolean[length];
+        valueClasses = new Class[length];
+        setters = new int[length];
+
+        for (int i = 0; i < length; i++)
+          {
+            CallableParameter parameter = parameters[i];
+
+            positions[i] = parameter.position;
+            sqlTypes[i] = parameter.sqlType;
+            scales[i] = parameter.scale;
+            kinds[i] = kind(parameter);
+            names[i] = parameter.name;
+            in[i] = parameter instanceof InParameter || parameter instanceof InOutParameter;
+            out[i] = parameter instanceof OutParameter || parameter instanceof InOutParameter;
+          }
+      }
+
+    static CallableBinder compile(CallableParameter[] parameters)
+      {
+        return new CallableBinder(parameters);
+      }
+
+    private static int kind(CallableParameter parameter)
+      {
+        return parameter instanceof InOutParameter ? 3 : parameter instanceof OutParameter ? 2 : parameter instanceof InParameter ? 1 : 0;
+      }
+
+    /**
+     * Returns true if parameters have the same arrangement (including the OUT
+     * parameter names) this plan was compiled for.
+     */
+
+    boolean matches(CallableParameter[] parameters)
+      {
+        if (parameters.length != positions.length)
+          return false;
+
+        for (int i = 0; i < parameters.length; i++)
+          {
+            CallableParameter parameter = parameters[i];
+
+            if (parameter.position != positions[i] || parameter.sqlType != sqlTypes[i]
+                || parameter.scale != scales[i] || kind(parameter) != kinds[i]
+                || (parameter.name == null ? names[i] != null : !parameter.name.equals(names[i])))
+              return false;
+          }
+
+        return true;
+      }
+
+    /**
+     * Registers the OUT parameters (once per statement) and binds the IN
+     * values.
+     */
+
+    void bind(CallableStatement statement, CallableParameter[] parameters) throws SQLException, DatabaseException
+      {
+        if (!registered)
+          {
+            for (int i = 0; i < positions.length; i++)
+              if (out[i])
+                statement.registerOutParameter(positions[i], sqlTypes[i], scales[i]);
+
+            registered = true;
+          }
+
+        for (int i = 0; i < positions.length; i++)
+          if (in[i])
+            {
+              Object value = parameters[i].value;
+              Class valueClass = value != null ? value.getClass() : null;
+
+              if (valueClass != valueClasses[i] || valueClass == null)
+                {
+                  setters[i] = setter(value);
+                  valueClasses[i] = valueClass;
+                }
+
+              set(statement, positions[i], setters[i], value);
+            }
+      }
+
+    private static int setter(Object value) throws DatabaseException
+      {
+        if (value instanceof NullValue)
+          return NULL;
+        else if (value instanceof String)
+          return STRING;
+        else if (value instanceof BigDecimal)
+          return BIG_DECIMAL;
+        else if (value instanceof Date)
+          return DATE;
+        else if (value instanceof Time)
+          return TIME;
+        else if (value instanceof Timestamp)
+          return TIMESTAMP;
+        else if (value instanceof Array)
+          return ARRAY;
+        else if (value instanceof Blob)
+          return BLOB;
+        else if (value instanceof Clob)
+          return CLOB;
+        else if (value instanceof Ref)
+          return REF;
+        else if (value instanceof URL)
+          return URL_VALUE;
+        else if (value instanceof AsciiStream)
+          return ASCII_STREAM;
+        else if (value instanceof BinaryStream)
+          return BINARY_STREAM;
+        else if (value instanceof CharacterStream)
+          return CHARACTER_STREAM;
+        else if (value instanceof InputStream)
+          throw new DatabaseException("Must use ejp.interfaces.AsciiStream or ejp.interfaces.BinaryStream instead of InputStream");
+        else if (value instanceof Reader)
+          throw new DatabaseException("Must use ejp.interfaces.CharacterStream instead of Reader");
+
+        return OBJECT;
+      }
+
+    private static void set(CallableStatement statement, int position, int setter, Object value) throws SQLException
+      {
+        switch (setter)
+          {
+            case NULL: statement.setNull(position, ((NullValue)value).getSqlType()); break;
+            case STRING: statement.setString(position, (String)value); break;
+            case BIG_DECIMAL: statement.setBigDecimal(position, (BigDecimal)value); break;
+            case DATE: statement.setDate(position, (Date)value); break;
+            case TIME: statement.setTime(position, (Time)value); break;
+            case TIMESTAMP: statement.setTimestamp(position, (Timestamp)value); break;
+            case ARRAY: statement.setArray(position, (Array)value); break;
+            case BLOB: statement.setBlob(position, (Blob)value); break;
+            case CLOB: statement.setClob(position, (Clob)value); break;
+            case REF: statement.setRef(position, (Ref)value); break;
+            case URL_VALUE: statement.setURL(position, (URL)value); break;
+            case ASCII_STREAM: statement.setAsciiStream(position, ((AsciiStream)value).getInputStream(), ((AsciiStream)value).getLength()); break;
+            case BINARY_STREAM: statement.setBinaryStream(position, ((BinaryStream)value).getInputStream(), ((BinaryStream)value).getLength()); break;
+            case CHARACTER_STREAM: statement.setCharacterStream(position, ((CharacterStream)value).getReader(), ((CharacterStream)value).getLength()); break;
+            default: statement.setObject(position, value);
+          }
+      }
+
+    /**
+     * Sets the named OUT and IN/OUT parameters into the matching setters of
+     * object.  The setter for a parameter named "total_amount" (or
+     * "totalAmount") is setTotalAmount().  Each value is read with the typed
+     * getter for the setter's type, so the driver does the conversion, but
+     * primitive values are still boxed on their way to the setter, which is
+     * called through reflection.
+     */
+
+    void mapOutParameters(CallableStatement statement, CallableParameter[] parameters, Object object) throws Exception
+      {
+        SqlShape key = new SqlShape(object.getClass()).add(Arrays.asList(names));
+        OutMapping[] mappings = outMappings.get(key);
+
+        if (mappings == null)
+          outMappings.put(key, mappings = compileOutMappings(parameters, object.getClass()));
+
+        for (OutMapping mapping : mappings)
+          {
+            Object value = get(statement, mapping.position, mapping.getter);
+
+            if (value != null || !mapping.primitive)
+              PropertyAccessor.setValue(mapping.method, object, value);
+          }
+      }
+
+    private static OutMapping[] compileOutMappings(CallableParameter[] parameters, Class cs) throws DatabaseException
+      {
+        List<OutMapping> mappings = new ArrayList<OutMapping>();
+
+        for (CallableParameter parameter : parameters)
+          if (parameter.name != null && (parameter instanceof OutParameter || parameter instanceof InOutParameter))
+            {
+              String name = "set" + parameter.name.replace("_", "").toLowerCase();
+              OutMapping mapping = null;
+
+              for (Method method : PropertyAccessor.get(cs).getMethods())
+                if (method.getParameterTypes().length == 1 && method.getName().toLowerCase().equals(name))
+                  {
+                    mapping = new OutMapping();
+                    mapping.position = parameter.position;
+                    mapping.method = method;
+                    mapping.primitive = method.getParameterTypes()[0].isPrimitive();
+                    mapping.getter = getter(method.getParameterTypes()[0]);
+                    break;
+                  }
+
+              if (mapping == null)
+                throw new DatabaseException("No setter found in " + cs.getName() + " for OUT parameter '" + parameter.name + "'");
+
+              mappings.add(mapping);
+            }
+
+        return mappings.toArray(new OutMapping[mappings.size()]);
+      }
+
+    private static int getter(Class type)
+      {
+        if (type == String.class) return GET_STRING;
+        if (type == int.class || type == Integer.class) return GET_INT;
+        if (type == long.class || type == Long.class) return GET_LONG;
+        if (type == double.class || type == Double.class) return GET_DOUBLE;
+        if (type == float.class || type == Float.class) return GET_FLOAT;
+        if (type == short.class || type == Short.class) return GET_SHORT;
+        if (type == byte.class || type == Byte.class) return GET_BYTE;
+        if (type == boolean.class || type == Boolean.class) return GET_BOOLEAN;
+        if (type == BigDecimal.class) return GET_BIG_DECIMAL;
+        if (type == Date.class) return GET_DATE;
+        if (type == Time.class) return GET_TIME;
+        if (type == Timestamp.class || type == java.util.Date.class) return GET_TIMESTAMP;
+
+        return GET_OBJECT;
+      }
+
+    /**
+     * Reads an OUT parameter with the getter chosen for its setter, so the
+     * driver converts straight to the setter's type.  Returns null for SQL NULL.
+     */
+
+    private static Object get(CallableStatement statement, int position, int getter) throws SQLException
+      {
+        Object value;
+
+        switch (getter)
+          {
+            case GET_STRING: return statement.getString(position);
+            case GET_INT: value = statement.getInt(position); break;
+            case GET_LONG: value = statement.getLong(position); break;
+            case GET_DOUBLE: value = statement.getDouble(position); break;
+            case GET_FLOAT: value = statement.getFloat(position); break;
+            case GET_SHORT: value = statement.getShort(position); break;
+            case GET_BYTE: value = statement.getByte(position); break;
+            case GET_BOOLEAN: value = statement.getBoolean(position); break;
+            case GET_BIG_DECIMAL: return statement.getBigDecimal(position);
+            case GET_DATE: return statement.getDate(position);
+            case GET_TIME: return statement.getTime(position);
+            case GET_TIMESTAMP: return statement.getTimestamp(position);
+            default: return statement.getObject(position);
+          }
+
+        return statement.wasNull() ? null : value;
+      }
+  }
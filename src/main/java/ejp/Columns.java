@@ -0,0 +1,369 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Selected columns of a result, read column by column into primitive
+ * arrays instead of row by row into objects.  Numbers go into long[], int[]
+ * and double[] arrays, timestamps into long[] (milliseconds), and strings
+ * are dictionary encoded (an int[] of codes into a table of distinct
+ * values), so a scan of millions of rows holds a few bytes per value rather
+ * than a boxed object per value and an array per row.
+ *
+ * <p>An example of this is:
+ *
+ * <pre>
+ *   Columns columns = new Columns().addLong("id").addDouble("amount").addTimestamp("ts");
+ *
+ *   db.executeQuery("select id, amount, ts from payments").loadColumns(columns);
+ *
+ *   long[] ids = columns.getLongs("id");
+ *   double[] amounts = columns.getDoubles("amount");
+ *
+ *   for (int i = 0; i &lt; columns.size(); i++)
+ *     ...
+ * </pre>
+ *
+ * <p>SQL NULL is stored as zero (or a code of -1 for strings), and isNull()
+ * tells them apart.  Loading more than one result appends to the columns.
+ */
+public final class Columns
+  {
+    private static final int LONG = 0, INT = 1, DOUBLE = 2, TIMESTAMP = 3, STRING = 4;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private Map<String, Column> columns = new LinkedHashMap<String, Column>();
+    private Column[] columnArray;
+    private int size, capacity;
+
+    static class Column
+      {
+        String name;
+        int kind, index;
+        long[] longs;
+        int[] ints;
+        double[] doubles;
+        BitSet nulls;
+        Map<String, Integer> codes;
+        List<String> dictionary;
+
+        Column(String name, int kind)
+          {
+            this.name = name;
+            this.kind = kind;
+
+            if (kind == STRING)
+              {
+                codes = new HashMap<String, Integer>();
+                dictionary = new ArrayList<String>();
+              }
+          }
+      }
+
+    private Columns add(String name, int kind)
+      {
+        if (size > 0)
+          throw new IllegalStateException("Columns can't be added once rows have been loaded");
+
+        columns.put(name.toLowerCase(), new Column(name, kind));
+
+        return this;
+      }
+
+    /**
+     * Adds a column read with getLong().
+     *
+     * @param name the column name
+     *
+     * @return returns this
+     */
+    public Columns addLong(String name) { return add(name, LONG); }
+
+    /**
+     * Adds a column read with getInt().
+     *
+     * @param name the column name
+     *
+     * @return returns this
+     */
+    public Columns addInt(String name) { return add(name, INT); }
+
+    /**
+     * Adds a column read with getDouble().
+     *
+     * @param name the column name
+     *
+     * @return returns this
+     */
+    public Columns addDouble(String name) { return add(name, DOUBLE); }
+
+    /**
+     * Adds a column read with getTimestamp() and kept as milliseconds.
+     *
+     * @param name the column name
+     *
+     * @return returns this
+     */
+    public Columns addTimestamp(String name) { return add(name, TIMESTAMP); }
+
+    /**
+     * Adds a column read with getString() and dictionary encoded.
+     *
+     * @param name the column name
+     *
+     * @return returns this
+     */
+    public Columns addString(String name) { return add(name, STRING); }
+
+    /**
+     * Returns the number of rows loaded.
+     *
+     * @return the number of rows
+     */
+    public int size() { return size; }
+
+    /**
+     * Returns the values of a long or timestamp column.
+     *
+     * @param name the column name
+     *
+     * @return an array of size() values
+     */
+    public long[] getLongs(String name) { return trim(getColumn(name, LONG, TIMESTAMP).longs); }
+
+    /**
+     * Returns the values of an int column.
+     *
+     * @param name the column name
+     *
+     * @return an array of size() values
+     */
+    public int[] getInts(String name) { return trim(getColumn(name, INT, INT).ints); }
+
+    /**
+     * Returns the values of a double column.
+     *
+     * @param name the column name
+     *
+     * @return an array of size() values
+     */
+    public double[] getDoubles(String name) { return trim(getColumn(name, DOUBLE, DOUBLE).doubles); }
+
+    /**
+     * Returns the codes of a string column, indexes into getDictionary(),
+     * or -1 for SQL NULL.
+     *
+     * @param name the column name
+     *
+     * @return an array of size() codes
+     */
+    public int[] getCodes(String name) { return trim(getColumn(name, STRING, STRING).ints); }
+
+    /**
+     * Returns the distinct values of a string column, in order of first
+     * appearance.
+     *
+     * @param name the column name
+     *
+     * @return the dictionary
+     */
+    public String[] getDictionary(String name)
+      {
+        List<String> dictionary = getColumn(name, STRING, STRING).dictionary;
+
+        return dictionary.toArray(new String[dictionary.size()]);
+      }
+
+    /**
+     * Returns the value of a string column for a row.
+     *
+     * @param name the column name
+     * @param row the row (from zero)
+     *
+     * @return the value, or null
+     */
+    public String getString(String name, int row)
+      {
+        Column column = getColumn(name, STRING, STRING);
+        int code = column.ints[checkRow(row)];
+
+        return code < 0 ? null : column.dictionary.get(code);
+      }
+
+    /**
+     * Returns true if a column was SQL NULL in a row.
+     *
+     * @param name the column name
+     * @param row the row (from zero)
+     *
+     * @return true if the value was null
+     */
+    public boolean isNull(String name, int row)
+      {
+        Column column = getColumn(name, -1, -1);
+
+        return column.nulls != null && column.nulls.get(checkRow(row));
+      }
+
+    private Column getColumn(String name, int kind, int otherKind)
+      {
+        Column column = columns.get(name.toLowerCase());
+
+        if (column == null)
+          throw new IllegalArgumentException("Column '" + name + "' wasn't added");
+
+        if (kind >= 0 && column.kind != kind && column.kind != otherKind)
+          throw new IllegalArgumentException("Column '" + name + "' wasn't added with that type");
+
+        return column;
+      }
+
+    private int checkRow(int row)
+      {
+        if (row < 0 || row >= size)
+          throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+
+        return row;
+      }
+
+    private long[] trim(long[] values) { return values == null ? new long[0] : values.length == size ? values : Arrays.copyOf(values, size); }
+
+    private int[] trim(int[] values) { return values == null ? new int[0] : values.length == size ? values : Arrays.copyOf(values, size); }
+
+    private double[] trim(double[] values) { return values == null ? new double[0] : values.length == size ? values : Arrays.copyOf(values, size); }
+
+    /* Loading (see Result.loadColumns()) ********************************************/
+
+    void resolve(Result result) throws DatabaseException, SQLException
+      {
+        if (columns.isEmpty())
+          throw new DatabaseException("No columns have been added");
+
+        for (Column column : columns.values())
+          {
+            Integer index = result.getColumnNumber(column.name.toLowerCase());
+
+            column.index = index != null ? index : result.getResultSet().findColumn(column.name);
+          }
+
+        columnArray = columns.values().toArray(new Column[columns.size()]);
+      }
+
+    void readRow(ResultSet resultSet) throws SQLException
+      {
+        if (size == capacity)
+          grow();
+
+        for (Column column : columnArray)
+          {
+            boolean isNull = false;
+
+            switch (column.kind)
+              {
+                case LONG:
+                  column.longs[size] = resultSet.getLong(column.index);
+                  isNull = resultSet.wasNull();
+                  break;
+
+                case INT:
+                  column.ints[size] = resultSet.getInt(column.index);
+                  isNull = resultSet.wasNull();
+                  break;
+
+                case DOUBLE:
+                  column.doubles[size] = resultSet.getDouble(column.index);
+                  isNull = resultSet.wasNull();
+                  break;
+
+                case TIMESTAMP:
+                  Timestamp timestamp = resultSet.getTimestamp(column.index);
+
+                  column.longs[size] = timestamp != null ? timestamp.getTime() : 0;
+                  isNull = timestamp == null;
+                  break;
+
+                default:
+                  String value = resultSet.getString(column.index);
+
+                  column.ints[size] = value != null ? encode(column, value) : -1;
+                  isNull = value == null;
+              }
+
+            if (isNull)
+              {
+                if (column.nulls == null)
+                  column.nulls = new BitSet();
+
+                column.nulls.set(size);
+              }
+          }
+
+        size++;
+      }
+
+    private static int encode(Column column, String value)
+      {
+        Integer code = column.codes.get(value);
+
+        if (code == null)
+          {
+            column.codes.put(value, code = column.dictionary.size());
+            column.dictionary.add(value);
+          }
+
+        return code;
+      }
+
+    private void grow()
+      {
+        capacity = capacity == 0 ? INITIAL_CAPACITY : capacity * 2;
+
+        for (Column column : columnArray)
+          switch (column.kind)
+            {
+              case LONG: case TIMESTAMP: column.longs = column.longs == null ? new long[capacity] : Arrays.copyOf(column.longs, capacity); break;
+              case DOUBLE: column.doubles = column.doubles == null ? new double[capacity] : Arrays.copyOf(column.doubles, capacity); break;
+              default: column.ints = column.ints == null ? new int[capacity] : Arrays.copyOf(column.ints, capacity);
+            }
+      }
+
+    /**
+     * Trims the arrays to the rows loaded, once loading is done.
+     */
+
+    void trim()
+      {
+        capacity = size;
+
+        for (Column column : columnArray)
+          {
+            column.longs = column.longs != null ? trim(column.longs) : null;
+            column.ints = column.ints != null ? trim(column.ints) : null;
+            column.doubles = column.doubles != null ? trim(column.doubles) : null;
+          }
+      }
+  }
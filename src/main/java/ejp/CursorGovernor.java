@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Tracks the open results (cursors) of one Database, oldest first.  Results
+ * are dropped as soon as they're closed, so a long lived Database doesn't
+ * collect closed results.  When the number of open results reaches the limit,
+ * the oldest is closed (Database.CURSORS_CLOSE_OLDEST) or the new one is
+ * refused (Database.CURSORS_FAIL), which Database checks (see checkLimit())
+ * before running the statement.  Methods are synchronized because the
+ * deadline watchdog reads the open results from its own thread.
+ */
+
+final class CursorGovernor
+  {
+    private static Logger logger = LoggerFactory.getLogger(CursorGovernor.class);
+
+    private LinkedHashSet<Result> open = new LinkedHashSet<Result>();
+    private int maxOpen, policy;
+
+    void setMaxOpen(int maxOpen) { this.maxOpen = maxOpen; }
+
+    int getMaxOpen() { return maxOpen; }
+
+    void setPolicy(int policy) { this.policy = policy; }
+
+    int getPolicy() { return policy; }
+
+    synchronized int size() { return open.size(); }
+
+    /**
+     * Throws if opening count more results would go over the limit and the
+     * policy is Database.CURSORS_FAIL, so the statement isn't run at all 
+     * (its locks taken, its cursor built) only to have its result refused.
+     */
+
+    synchronized void checkLimit(int count) throws DatabaseException
+      {
+        if (policy == Database.CURSORS_FAIL && maxOpen > 0 && open.size() + count > maxOpen)
+          throw new DatabaseException("Too many open results (" + open.size() + "); close results when done with them, or raise the open cursor limit");
+      }
+
+    void add(Result result) throws DatabaseException
+      {
+        Result oldest = null;
+
+        synchronized (this)
+          {
+            if (maxOpen > 0 && open.size() >= maxOpen)
+              {
+                if (policy == Database.CURSORS_FAIL)
+                  {
+                    // checkLimit() normally stops this before the query runs
+                    result.close();
+
+                    throw new DatabaseException("Too many open results (" + open.size() + "); close results when done with them, or raise the open cursor limit");
+                  }
+
+                Iterator<Result> it = open.iterator();
+
+                oldest = it.next();
+                it.remove();
+              }
+
+            open.add(result);
+          }
+
+        if (oldest != null)
+          {
+            logger.debug("Open cursor limit of {} reached, closing the oldest result", maxOpen);
+
+            oldest.close();
+          }
+      }
+
+    synchronized void remove(Result result)
+      {
+        open.remove(result);
+      }
+
+    synchronized boolean isOpen(Statement statement)
+      {
+        for (Result result : open)
+          if (result.getStatement() == statement)
+            return true;
+
+        return false;
+      }
+
+    synchronized Result[] toArray()
+      {
+        return open.toArray(new Result[open.size()]);
+      }
+
+    /**
+     * Closes the results that are still open, and returns how many there were.
+     */
+
+    int closeAll()
+      {
+        Result[] results = toArray();
+
+        for (Result result : results)
+          result.close();
+
+        synchronized (this)
+          {
+            open.clear();
+          }
+
+        return results.length;
+      }
+  }
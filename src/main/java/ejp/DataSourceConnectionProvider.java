@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license 
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not, 
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import ejp.interfaces.ConnectionProvider;
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+/**
+ * A ConnectionProvider backed by a javax.sql.DataSource.  By default, 
+ * connections are returned to the DataSource each time a Database is closed, 
+ * which is what a container managed (or otherwise pooling) DataSource expects.
+ * Call setPooling(true) to have the DatabaseManager keep them open in its own 
+ * pool instead.
+ */
+
+public class DataSourceConnectionProvider implements ConnectionProvider
+  {
+    private DataSource dataSource;
+    private String username, password;
+    private boolean pooling;
+
+    /**
+     * Create a DataSourceConnectionProvider.
+     *
+     * @param dataSource the data source that supplies connections
+     */
+    
+    public DataSourceConnectionProvider(DataSource dataSource)
+      {
+        this(dataSource, null, null);
+      }
+
+    /**
+     * Create a DataSourceConnectionProvider.
+     *
+     * @param dataSource the data source that supplies connections
+     * @param username the username to use for signon
+     * @param password the password to use for signon
+     */
+    
+    public DataSourceConnectionProvider(DataSource dataSource, String username, String password)
+      {
+        this.dataSource = dataSource;
+        this.username = username;
+        this.password = password;
+      }
+
+    /**
+     * Returns the DataSource that supplies connections.
+     *
+     * @return the DataSource
+     *
+     * @throws SQLException
+     */
+    
+    protected DataSource getDataSource() throws SQLException
+      {
+        return dataSource;
+      }
+
+    public Connection getConnection() throws SQLException
+      {
+        if (username != null)
+          return getDataSource().getConnection(username, password);
+        
+        return getDataSource().getConnection();
+      }
+
+    /**
+     * Defines whether the DatabaseManager keeps connections open in its pool.
+     * The default is false.
+     *
+     * @param pooling true to pool connections in the DatabaseManager
+     */
+    
+    public void setPooling(boolean pooling) { this.pooling = pooling; }
+
+    public boolean isPooling() { return pooling; }
+  }
@@ -28,6 +28,8 @@ import java.sql.PreparedStatement;
 import java.sql.Ref;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLSyntaxErrorException;
 import java.sql.SQLWarning;
 import java.sql.Savepoint;
 import java.sql.Statement;
@@ -46,6 +48,8 @@ import java.sql.CallableStatement;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The center of ejp, the Database class provides a seamless integration 
@@ -57,18 +61,32 @@ import java.util.Map;
 @SuppressWarnings("unchecked")
 public final class Database
   {
+    public static final int CURSORS_CLOSE_OLDEST = 0;
+    public static final int CURSORS_FAIL = 1;
     private static Logger logger = LoggerFactory.getLogger(Database.class);
     private String cursorName, databaseName, catalogPattern, schemaPattern, querySql, updateSql, callableSql;
-    private List<Result> resultsList;
+    private CursorGovernor cursors = new CursorGovernor();
     private List<Integer> batchUpdateCounts;
     private List<Statement> batchExecuteOrder;
     private DatabaseManager databaseManager;
     private Statement queryStatement, updateStatement, callableStatement;
+    private StatementSettings queryStatementSettings, callableStatementSettings, updateStatementSettings;
+    private StatementCache.Entry callableEntry;
+    private MetaData metaData;
+    private CallableBinder callableBinder;
+    private volatile Statement plainStatement;
+    private volatile long deadline;
+    private TimerTask deadlineTask;
     private Map<String, Statement> batchStatements;
+    private Map<Statement, StatementSettings> batchStatementSettings; // one per batch statement, so reuse doesn't reapply settings
     private Connection connection;
-    private boolean isClosed, isBatch, automaticTransactions = true;
-    private Boolean escapeProcessing, ignoreAssociations;
+    private boolean isClosed, isBatch, automaticTransactions = true, bindNullValues;
+    private int forwardOnlyLoads, queryStatementType, queryStatementConcurrency, callableStatementType, callableStatementConcurrency;
+    private Boolean escapeProcessing, ignoreAssociations, connectionAutoCommit;
     private Integer queryTimeout, fetchDirection, fetchSize, maxRows, maxFieldSize, resultSetType, resultSetConcurrency;
+    long connectionCreated, connectionReleased, poolBorrowed;
+    final AtomicBoolean poolIdle = new AtomicBoolean(), poolQueued = new AtomicBoolean();
+    StatementCache statementCache;
 
     /* Non-public access ************************************************************/
 
@@ -95,28 +113,176 @@ public final class Database
       {
         cursorName = querySql = updateSql = callableSql = null;
         queryStatement = updateStatement = callableStatement = null;
-        resultsList = new ArrayList<Result>();
+        callableEntry = null;
+        callableBinder = null;
+        cursors = new CursorGovernor();
         batchUpdateCounts = null;
         batchStatements = null;
+        batchStatementSettings = null;
         batchExecuteOrder = null;
         escapeProcessing = ignoreAssociations = null;
         isClosed = isBatch = false;
+        forwardOnlyLoads = 0;
+        plainStatement = null;
+        stopDeadlineWatch();
         queryTimeout = fetchDirection = fetchSize = maxRows = maxFieldSize = resultSetType = resultSetConcurrency = null;
       }
 
+    void setMetaData(MetaData metaData) { this.metaData = metaData; }
+
     void setConnection(Connection connection)
       {
         this.connection = connection; 
+        this.connectionAutoCommit = null;
+        this.metaData = null;
+
+        if (statementCache != null)
+          statementCache.clear();
+      }
+
+    /**
+     * Internal loads only ever move forward through their results, so while
+     * one is running statements are created TYPE_FORWARD_ONLY and
+     * CONCUR_READ_ONLY, regardless of what the caller set.  Calls nest.
+     */
+
+    void beginForwardOnly() { forwardOnlyLoads++; }
+
+    void endForwardOnly() { forwardOnlyLoads--; }
+
+    private int getCursorType()
+      {
+        return forwardOnlyLoads > 0 || resultSetType == null ? ResultSet.TYPE_FORWARD_ONLY : resultSetType;
+      }
+
+    private int getCursorConcurrency()
+      {
+        return forwardOnlyLoads > 0 || resultSetConcurrency == null ? ResultSet.CONCUR_READ_ONLY : resultSetConcurrency;
+      }
+
+    <T> Result<T> queryObjectForLoad(T object, String externalClauses, Object... externalClausesParameters) throws DatabaseException
+      {
+        beginForwardOnly();
+
+        try
+          {
+            return queryObject(object, externalClauses, externalClausesParameters);
+          }
+        finally { endForwardOnly(); }
+      }
+
+    <T> Result<T> queryObjectForLoad(Class<T> cs, String externalClauses, Object... externalClausesParameters) throws DatabaseException
+      {
+        beginForwardOnly();
+
+        try
+          {
+            return queryObject(cs, externalClauses, externalClausesParameters);
+          }
+        finally { endForwardOnly(); }
+      }
+
+    private void applySettings(Statement statement, StatementSettings settings, String sql) throws SQLException, DatabaseException
+      {
+        settings.apply(statement, getFetchSize(sql), maxRows, cursorName, escapeProcessing, maxFieldSize, queryTimeout, fetchDirection, getTimeBudget());
+      }
+
+    /**
+     * Returns the adaptive fetch size for sql (see 
+     * DatabaseManager.setAdaptiveFetchSize()), or the fetch size set for 
+     * this database if there isn't one.
+     */
+
+    private Integer getFetchSize(String sql)
+      {
+        if (sql != null && databaseManager != null)
+          {
+            Integer advised = databaseManager.fetchSizeAdvisor.getFetchSize(sql);
+
+            if (advised != null)
+              return advised;
+          }
+
+        return fetchSize;
+      }
+
+    private <T> Result<T> trackFetch(Result<T> result, String sql)
+      {
+        FetchSizeAdvisor advisor = databaseManager != null ? databaseManager.fetchSizeAdvisor : null;
+
+        if (advisor != null && advisor.isEnabled() && result.getResultSet() != null)
+          {
+            result.fetchShape = sql;
+
+            if (advisor.needsRowWidth(sql))
+              result.fetchRowWidth = FetchSizeAdvisor.estimateRowWidth(result.getResultSet());
+          }
+
+        return result;
+      }
+
+    private void applyTimeBudget(Statement statement, StatementSettings settings) throws SQLException, DatabaseException
+      {
+        settings.apply(statement, null, null, null, null, null, null, null, getTimeBudget());
+      }
+
+    /**
+     * Returns the whole seconds left before the deadline, or zero if there
+     * isn't a deadline.
+     */
+
+    private int getTimeBudget() throws DatabaseException
+      {
+        if (deadline == 0)
+          return 0;
+
+        checkDeadline();
+
+        return (int)((deadline - System.currentTimeMillis() + 999) / 1000);
+      }
+
+    void checkDeadline() throws DatabaseException
+      {
+        if (isDeadlineExceeded())
+          throw new DatabaseException(DatabaseException.DEADLINE_EXCEEDED);
+      }
+
+    private synchronized void stopDeadlineWatch()
+      {
+        deadline = 0;
+
+        if (deadlineTask != null)
+          {
+            DeadlineWatchdog.unwatch(deadlineTask);
+            deadlineTask = null;
+          }
+      }
+
+    private static void cancel(Statement statement)
+      {
+        if (statement != null)
+          try
+            {
+              statement.cancel();
+            }
+          catch (Exception e) { } // don't care, the statement may be done or closed
       }
 
     void closeResult(Result result)
       {
+        cursors.remove(result);
+
         try
           {
             ResultSet resultSet = result.getResultSet();
             Statement statement = resultSet.getStatement();
 
-            if (statement == queryStatement)
+            // rows read straight from the ResultSet (ResultSetUtils, etc.) aren't counted, so there's nothing to record
+            if (result.fetchShape != null && result.rowsCounted)
+              databaseManager.fetchSizeAdvisor.record(result.fetchShape, result.rowCount, result.fetchRowWidth);
+
+            // a query group's results share one statement, which is closed with the last of them
+            if (statement == queryStatement || (statementCache != null && statementCache.contains(statement)) || hasOpenResult(statement))
               resultSet.close();
             else
               statement.close();
@@ -130,7 +296,8 @@ public final class Database
           {
             try
               {
-                queryStatement.close();
+                if (statementCache == null || !statementCache.contains(queryStatement))
+                  queryStatement.close();
               }
             catch (Exception e) { } // don't care.  JDBC spec says close can be called multiple times, but Resin was complaining.
 
@@ -144,7 +311,8 @@ public final class Database
           {
             try
               {
-                updateStatement.close();
+                if (statementCache == null || !statementCache.contains(updateStatement))
+                  updateStatement.close();
               }
             catch (Exception e) { } // don't care.  JDBC spec says close can be called multiple times, but Resin was complaining.
 
@@ -152,6 +320,21 @@ public final class Database
           }
       }
 
+    private boolean hasOpenResult(Statement statement)
+      {
+        return cursors.isOpen(statement);
+      }
+
+    /**
+     * Returns true if statement is one of the current statements or backs an 
+     * open Result, so the statement cache mustn't close it.
+     */
+
+    boolean isStatementInUse(Statement statement)
+      {
+        return statement == queryStatement || statement == updateStatement || statement == callableStatement || hasOpenResult(statement);
+      }
+
     String getCatalogPattern() { return catalogPattern; }
 
     String getSchemaPattern() { return schemaPattern; }
@@ -189,9 +372,18 @@ public final class Database
     
     public MetaData getMetaData() throws DatabaseException 
       {
+        if (metaData != null)
+          return metaData;
+
         try
           {
-            return MetaData.getMetaData(connection); 
+            // resolved through the connection once, then pinned here and on the manager
+            metaData = MetaData.getMetaData(connection);
+
+            if (databaseManager != null)
+              databaseManager.pinMetaData(metaData);
+
+            return metaData;
           }
         catch (Exception e)
           {
@@ -251,14 +443,19 @@ public final class Database
     
     public void close()
       {
+        if (isClosed)
+          return;
+
         logger.debug("closing database");
 
         try
           {
             endBatch();
 
-            for (Result result : resultsList)
-              result.close();
+            int open = cursors.closeAll();
+
+            if (open > 0)
+              logger.warn("{} results were left open, closing them", open);
 
             closeQueryStatement();
             closeUpdateStatement();
@@ -269,11 +466,12 @@ public final class Database
           }
         finally
           {
+            isClosed = true;
+            stopDeadlineWatch();
+
             if (databaseManager != null)
               databaseManager.releaseDatabase(this);
           }
-        
-        isClosed = true;
       }
     
     /**
@@ -374,9 +572,134 @@ public final class Database
 
         this.queryTimeout = seconds;
       }
+
+    /**
+     * Limits the number of results (cursors) that can be open at once on this 
+     * database.  When the limit is reached, CURSORS_CLOSE_OLDEST closes the 
+     * oldest open result to make room, and CURSORS_FAIL refuses the new query 
+     * with a DatabaseException.  Closed results are always dropped right away.  
+     * A limit of zero (the default) means no limit.
+     *
+     * @param maxOpenCursors the maximum number of open results, or zero
+     * @param policy CURSORS_CLOSE_OLDEST or CURSORS_FAIL
+     */
+
+    public void setOpenCursorLimit(int maxOpenCursors, int policy)
+      {
+        logger.debug("Setting open cursor limit to {}, policy = {}", maxOpenCursors, policy);
+
+        if (policy != CURSORS_CLOSE_OLDEST && policy != CURSORS_FAIL)
+          throw new IllegalArgumentException("Invalid open cursor policy: " + policy);
+
+        cursors.setMaxOpen(maxOpenCursors);
+        cursors.setPolicy(policy);
+      }
+
+    /**
+     * Returns the number of results (cursors) currently open on this database.
+     *
+     * @return the number of open results
+     */
+
+    public int getOpenCursorCount() { return cursors.size(); }
+
+    /**
+     * Sets a deadline (in System.currentTimeMillis() terms) for everything 
+     * done with this database until it's closed.  Each statement gets the 
+     * time remaining as its query timeout (or the query timeout, if that's 
+     * shorter), statements are refused once the deadline passes, and a 
+     * watchdog cancels in-flight statements and open results when it does.
+     * Association loading stops when the deadline passes.  Zero clears the 
+     * deadline.
+     *
+     * @param deadline the deadline in milliseconds since the epoch, or zero
+     */
+
+    public synchronized void setDeadline(long deadline)
+      {
+        logger.debug("Setting deadline to {}", deadline);
+
+        stopDeadlineWatch();
+
+        if (deadline > 0)
+          {
+            this.deadline = deadline;
+            deadlineTask = DeadlineWatchdog.watch(this, deadline);
+          }
+      }
+
+    /**
+     * Sets the deadline to the given number of milliseconds from now.
+     *
+     * @param milliseconds the time budget
+     *
+     * @see #setDeadline(long)
+     */
+
+    public void setTimeBudget(long milliseconds)
+      {
+        setDeadline(System.currentTimeMillis() + Math.max(1, milliseconds));
+      }
+
+    /**
+     * Returns the deadline, or zero if there isn't one.
+     *
+     * @return the deadline in milliseconds since the epoch
+     */
+
+    public long getDeadline() { return deadline; }
+
+    /**
+     * Returns the milliseconds left before the deadline, or Long.MAX_VALUE 
+     * if there isn't a deadline.
+     *
+     * @return the time remaining
+     */
+
+    public long getRemainingTime()
+      {
+        long d = deadline;
+
+        return d == 0 ? Long.MAX_VALUE : Math.max(0, d - System.currentTimeMillis());
+      }
+
+    /**
+     * Returns true if there's a deadline and it has passed.
+     *
+     * @return true or false
+     */
+
+    public boolean isDeadlineExceeded() { return getRemainingTime() == 0; }
+
+    /**
+     * Cancels in-flight statements, and the statements of open results, 
+     * via java.sql.Statement.cancel().  Can be called from another thread.
+     * 
+     * @see java.sql.Statement
+     */
+
+    public void cancel()
+      {
+        logger.debug("Cancelling statements");
+
+        cancel(queryStatement);
+        cancel(updateStatement);
+        cancel(callableStatement);
+        cancel(plainStatement);
+
+        try
+          {
+            for (Result result : cursors.toArray())
+              cancel(result.getResultSet().getStatement());
+          }
+        catch (Exception e) { } // don't care, results are being opened and closed by their owner
+      }
     
     /**
-     * Defaults to ResultSet.TYPE_SCROLL_INSENSITIVE.
+     * Defaults to ResultSet.TYPE_FORWARD_ONLY.  Set a scrollable type, such as
+     * ResultSet.TYPE_SCROLL_INSENSITIVE, before querying if you're going to use
+     * Result.previous(), first(), last() and the like.  loadObject(),
+     * loadObjects() and association loading always use forward only cursors.
      * 
      * @see java.sql.Connection
      * @see java.sql.ResultSet
@@ -404,36 +727,21 @@ public final class Database
       }
 
     Statement getStatement() throws DatabaseException
+      {
+        return getStatement(null);
+      }
+
+    private Statement getStatement(String sql) throws DatabaseException
       {
         try
           {
-            logger.debug("Creating statement for querying: resultSetType = {}, resultSetConcurrency = {}", resultSetType, resultSetConcurrency);
-
-            Statement statement = connection.createStatement(resultSetType != null ? resultSetType : ResultSet.TYPE_SCROLL_INSENSITIVE,
-                                                             resultSetConcurrency != null ? resultSetConcurrency : ResultSet.CONCUR_READ_ONLY);
+            logger.debug("Creating statement for querying: resultSetType = {}, resultSetConcurrency = {}", getCursorType(), getCursorConcurrency());
 
-            if (fetchSize != null)
-              statement.setFetchSize(fetchSize);
+            Statement statement = connection.createStatement(getCursorType(), getCursorConcurrency());
 
-            if (maxRows != null)
-              statement.setMaxRows(maxRows);
-          
-            if (cursorName != null)
-              statement.setCursorName(cursorName);
-            
-            if (escapeProcessing != null)
-              statement.setEscapeProcessing(escapeProcessing);
-
-            if (maxFieldSize != null)
-              statement.setMaxFieldSize(maxFieldSize);
-            
-            if (queryTimeout != null)
-              statement.setQueryTimeout(queryTimeout);
-            
-            if (fetchDirection != null)
-              statement.setFetchDirection(fetchDirection);
+            applySettings(statement, new StatementSettings(), sql);
 
-            return statement;
+            return plainStatement = statement;
           }
         catch (Exception e)
           {
@@ -450,15 +758,21 @@ public final class Database
             if (isBatch)
               {
                 if ((updateStatement = batchStatements.get("simpleStatement")) != null)
-                  return updateStatement;
+                  {
+                    updateStatementSettings = batchStatementSettings.get(updateStatement);
+
+                    return updateStatement;
+                  }
               }
             else closeUpdateStatement();
 
             updateStatement = getConnection().createStatement();
+            applyTimeBudget(updateStatement, updateStatementSettings = new StatementSettings());
 
             if (isBatch)
               {
                 batchStatements.put("simpleStatement", updateStatement);
+                batchStatementSettings.put(updateStatement, updateStatementSettings);
                 batchExecuteOrder.add(updateStatement);
               }
             
@@ -477,39 +791,44 @@ public final class Database
 
         try
           {
-            if (callableStatement != null && callableStatement instanceof CallableStatement && sql.equals(callableSql))
-              return (CallableStatement)callableStatement;
+            int type = getCursorType(), concurrency = getCursorConcurrency();
 
-            logger.debug("Creating callable statement:");
-            logger.debug("sql = {}", sql);
-            logger.debug("resultSetType = {}", resultSetType);
-            logger.debug("resultSetConcurrency = {}", resultSetConcurrency);
+            if (callableStatement != null && callableStatement instanceof CallableStatement && sql.equals(callableSql)
+                && type == callableStatementType && concurrency == callableStatementConcurrency)
+              {
+                applySettings(callableStatement, callableStatementSettings, null);
 
-            callableStatement = connection.prepareCall(sql, resultSetType != null ? resultSetType : ResultSet.TYPE_SCROLL_INSENSITIVE,
-                                                       resultSetConcurrency != null ? resultSetConcurrency : ResultSet.CONCUR_READ_ONLY);
+                return (CallableStatement)callableStatement;
+              }
 
-            if (fetchSize != null)
-              callableStatement.setFetchSize(fetchSize);
+            String key = statementCache != null ? StatementCache.key(sql, type, concurrency, "call") : null;
+            StatementCache.Entry entry = key != null ? statementCache.get(key) : null;
 
-            if (maxRows != null)
-              callableStatement.setMaxRows(maxRows);
-          
-            if (cursorName != null)
-              callableStatement.setCursorName(cursorName);
-            
-            if (escapeProcessing != null)
-              callableStatement.setEscapeProcessing(escapeProcessing);
+            callableBinder = null;
 
-            if (maxFieldSize != null)
-              callableStatement.setMaxFieldSize(maxFieldSize);
-            
-            if (queryTimeout != null)
-              callableStatement.setQueryTimeout(queryTimeout);
-            
-            if (fetchDirection != null)
-              callableStatement.setFetchDirection(fetchDirection);
+            if (entry != null && !hasOpenResult(entry.statement))
+              {
+                logger.debug("Using cached callable statement: sql = {}", sql);
+
+                callableStatement = entry.statement;
+                callableEntry = entry;
+              }
+            else
+              {
+                logger.debug("Creating callable statement:");
+                logger.debug("sql = {}", sql);
+                logger.debug("resultSetType = {}", type);
+                logger.debug("resultSetConcurrency = {}", concurrency);
+
+                callableStatement = connection.prepareCall(sql, type, concurrency);
+                callableEntry = key != null && entry == null ? statementCache.put(key, (CallableStatement)callableStatement) : null;
+              }
+
+            applySettings(callableStatement, callableStatementSettings = callableEntry != null ? callableEntry.settings : new StatementSettings(), null);
 
             callableSql = sql;
+            callableStatementType = type;
+            callableStatementConcurrency = concurrency;
 
             return (CallableStatement)callableStatement;
           }
@@ -526,39 +845,42 @@ public final class Database
 
         try
           {
-            if (queryStatement != null && queryStatement instanceof PreparedStatement && sql.equals(querySql))
-              return (PreparedStatement)queryStatement;
+            int type = getCursorType(), concurrency = getCursorConcurrency();
 
-            logger.debug("Creating prepared statement for querying:");
-            logger.debug("sql = {}", sql);
-            logger.debug("resultSetType = {}", resultSetType);
-            logger.debug("resultSetConcurrency = {}", resultSetConcurrency);
+            if (queryStatement != null && queryStatement instanceof PreparedStatement && sql.equals(querySql)
+                && type == queryStatementType && concurrency == queryStatementConcurrency)
+              {
+                applySettings(queryStatement, queryStatementSettings, sql);
 
-            queryStatement = connection.prepareStatement(sql, resultSetType != null ? resultSetType : ResultSet.TYPE_SCROLL_INSENSITIVE,
-                                                         resultSetConcurrency != null ? resultSetConcurrency : ResultSet.CONCUR_READ_ONLY);
+                return (PreparedStatement)queryStatement;
+              }
 
-            if (fetchSize != null)
-              queryStatement.setFetchSize(fetchSize);
+            String key = statementCache != null ? StatementCache.key(sql, type, concurrency, "query") : null;
+            StatementCache.Entry entry = key != null ? statementCache.get(key) : null;
 
-            if (maxRows != null)
-              queryStatement.setMaxRows(maxRows);
-          
-            if (cursorName != null)
-              queryStatement.setCursorName(cursorName);
-            
-            if (escapeProcessing != null)
-              queryStatement.setEscapeProcessing(escapeProcessing);
+            if (entry != null && !hasOpenResult(entry.statement))
+              {
+                logger.debug("Using cached prepared statement for querying: sql = {}", sql);
 
-            if (maxFieldSize != null)
-              queryStatement.setMaxFieldSize(maxFieldSize);
-            
-            if (queryTimeout != null)
-              queryStatement.setQueryTimeout(queryTimeout);
-            
-            if (fetchDirection != null)
-              queryStatement.setFetchDirection(fetchDirection);
+                queryStatement = entry.statement;
+                queryStatementSettings = entry.settings;
+              }
+            else
+              {
+                logger.debug("Creating prepared statement for querying:");
+                logger.debug("sql = {}", sql);
+                logger.debug("resultSetType = {}", type);
+                logger.debug("resultSetConcurrency = {}", concurrency);
+
+                queryStatement = connection.prepareStatement(sql, type, concurrency);
+                queryStatementSettings = key != null && entry == null ? statementCache.put(key, (PreparedStatement)queryStatement).settings : new StatementSettings();
+              }
+
+            applySettings(queryStatement, queryStatementSettings, sql);
 
             querySql = sql;
+            queryStatementType = type;
+            queryStatementConcurrency = concurrency;
 
             return (PreparedStatement)queryStatement;
           }
@@ -578,30 +900,52 @@ public final class Database
         try
           {
             if (updateStatement != null && updateStatement instanceof PreparedStatement && sql.equals(updateSql))
-              return (PreparedStatement)updateStatement;
+              {
+                applyTimeBudget(updateStatement, updateStatementSettings);
+
+                return (PreparedStatement)updateStatement;
+              }
             else if (isBatch)
               {
                 if ((updateStatement = batchStatements.get(sql)) != null)
                   {
                     updateSql = sql;
+                    applyTimeBudget(updateStatement, updateStatementSettings = batchStatementSettings.get(updateStatement));
                     
                     return (PreparedStatement)updateStatement;
                   }
               }
             else closeUpdateStatement();
 
-            if (keys != null && keys.size() > 0)
-              updateStatement = getConnection().prepareStatement(sql, (String[])keys.toArray(new String[keys.size()]));
-            else if (keys != null)
-              updateStatement = getConnection().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            String key = statementCache != null && !isBatch 
+                         ? StatementCache.key(sql, 0, 0, keys == null ? "update" : keys.size() > 0 ? "keys" + keys : "generatedKeys") : null;
+            StatementCache.Entry entry = key != null ? statementCache.get(key) : null;
+
+            if (entry != null)
+              {
+                updateStatement = entry.statement;
+                updateStatementSettings = entry.settings;
+              }
             else
-              updateStatement = getConnection().prepareStatement(sql);
+              {
+                if (keys != null && keys.size() > 0)
+                  updateStatement = getConnection().prepareStatement(sql, (String[])keys.toArray(new String[keys.size()]));
+                else if (keys != null)
+                  updateStatement = getConnection().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                else
+                  updateStatement = getConnection().prepareStatement(sql);
+
+                updateStatementSettings = key != null ? statementCache.put(key, (PreparedStatement)updateStatement).settings : new StatementSettings();
+              }
+
+            applyTimeBudget(updateStatement, updateStatementSettings);
 
             updateSql = sql;
 
             if (isBatch)
               {
                 batchStatements.put(updateSql, updateStatement);
+                batchStatementSettings.put(updateStatement, updateStatementSettings);
                 batchExecuteOrder.add(updateStatement);
               }
             
@@ -700,9 +1044,11 @@ public final class Database
       {
         try
           {
+            cursors.checkLimit(1);
+
             Result<T> result = ORMSupport.queryObject(this, object, false, externalClauses, externalClausesParameters);
             
-            resultsList.add(result);
+            cursors.add(result);
             
             return result;
           }
@@ -730,9 +1076,11 @@ public final class Database
       {
         try
           {
+            cursors.checkLimit(1);
+
             Result<T> result = ORMSupport.queryObject(this, cs, false, externalClauses, externalClausesParameters);
 
-            resultsList.add(result);
+            cursors.add(result);
 
             return result;
           }
@@ -789,7 +1137,7 @@ public final class Database
 
     public <T> T loadObject(T object, String externalClauses, Object... externalClausesParameters) throws DatabaseException
       {
-        Result<T> result = queryObject(object, externalClauses, externalClausesParameters);
+        Result<T> result = queryObjectForLoad(object, externalClauses, externalClausesParameters);
             
         try
           {
@@ -814,7 +1162,7 @@ public final class Database
 
     public <T> T loadObject(Class<T> cs, String externalClauses, Object... externalClausesParameters) throws DatabaseException
       {
-        Result<T> result = queryObject(cs, externalClauses, externalClausesParameters);
+        Result<T> result = queryObjectForLoad(cs, externalClauses, externalClausesParameters);
 
         try
           {
@@ -876,7 +1224,7 @@ public final class Database
     
     public <T> Collection<T> loadObjects(Collection<T> collection, T object, String externalClauses, Object... externalClausesParameters) throws DatabaseException
       {
-        Result<T> result = queryObject(object, externalClauses, externalClausesParameters);
+        Result<T> result = queryObjectForLoad(object, externalClauses, externalClausesParameters);
         
         try
           {
@@ -901,7 +1249,7 @@ public final class Database
 
     public <T> Collection<T> loadObjects(Collection<T> collection, Class<T> cs, String externalClauses, Object... externalClausesParameters) throws DatabaseException
       {
-        Result<T> result = queryObject(cs, externalClauses, externalClausesParameters);
+        Result<T> result = queryObjectForLoad(cs, externalClauses, externalClausesParameters);
         
         try
           {
@@ -1116,6 +1464,8 @@ public final class Database
             boolean rval = false;
             Statement statement = getStatement();
 
+            cursors.checkLimit(1);
+
             if (keys != null && keys.size() > 0)
               rval = statement.execute(sql, (String[])keys.toArray(new String[keys.size()]));
             else if (keys != null)
@@ -1137,7 +1487,7 @@ public final class Database
 
             Result<T> result = new Result(this, statement, statement.getResultSet(), !rval, cs);
 
-            resultsList.add(result);
+            cursors.add(result);
 
             return result;
           }
@@ -1199,11 +1549,13 @@ public final class Database
 
         try
           {
-            Statement statement = getStatement();
+            Statement statement = getStatement(sql);
             
-            Result<T> result = new Result(this, statement.executeQuery(sql), cs);
+            cursors.checkLimit(1);
+
+            Result<T> result = trackFetch(new Result(this, statement.executeQuery(sql), cs), sql);
             
-            resultsList.add(result);
+            cursors.add(result);
             
             return result;
           }
@@ -1275,11 +1627,13 @@ public final class Database
 
             setPreparedStatementObjects(preparedStatement, parameters);
 
+            cursors.checkLimit(1);
+
             preparedStatement.execute();
             
-            Result<T> result = new Result(this, preparedStatement.getResultSet(), cs);
+            Result<T> result = trackFetch(new Result(this, preparedStatement.getResultSet(), cs), sql);
             
-            resultsList.add(result);
+            cursors.add(result);
             
             return result;
           }
@@ -1289,6 +1643,181 @@ public final class Database
           }
       }
     
+    /**
+     * Creates a query group, for running several independent parameterized 
+     * queries in one round trip where the driver allows it.
+     * 
+     * @return a new QueryGroup
+     *
+     * @see QueryGroup
+     */
+    
+    public QueryGroup createQueryGroup()
+      {
+        return new QueryGroup(this);
+      }
+
+    /**
+     * Returns true if e (or a cause) says the driver or database doesn't 
+     * support the combined statement: a feature not supported or a syntax 
+     * error, by exception type or SQL state class (0A or 42).
+     */
+
+    private static boolean isUnsupported(Throwable e)
+      {
+        for (; e != null; e = e.getCause())
+          {
+            if (e instanceof SQLFeatureNotSupportedException || e instanceof SQLSyntaxErrorException)
+              return true;
+
+            if (e instanceof SQLException)
+              {
+                String state = ((SQLException)e).getSQLState();
+
+                if (state != null && (state.startsWith("0A") || state.startsWith("42")))
+                  return true;
+              }
+          }
+
+        return false;
+      }
+
+    /**
+     * Runs a query group, combined into one statement if the database can 
+     * return its results side by side, otherwise query by query.  The first 
+     * combined attempt is made outside of transactions, since a failed 
+     * statement can spoil a transaction on some databases.  Returns true if 
+     * the group ran combined.
+     */
+
+    boolean executeQueryGroup(QueryGroup group) throws DatabaseException
+      {
+        List<QueryGroup.Query> queries = group.getQueries();
+        MetaData metaData = getMetaData();
+        Boolean combines = metaData.combinesQueries();
+
+        for (QueryGroup.Query query : queries)
+          query.result = null;
+
+        // the whole group is refused up front, rather than part way through
+        cursors.checkLimit(queries.size());
+
+        if (queries.size() > 1 && combines != Boolean.FALSE && (combines == Boolean.TRUE || getAutoCommit()))
+          {
+            boolean unsupported = false;
+
+            try
+              {
+                executeCombined(queries);
+
+                if (combines == null)
+                  metaData.setCombinesQueries(Boolean.TRUE);
+
+                return true;
+              }
+            catch (Exception e)
+              {
+                unsupported = isUnsupported(e);
+
+                if (unsupported)
+                  logger.debug("Combined query group isn't supported, running the queries one at a time: {}", e.toString());
+                else
+                  logger.warn("Combined query group failed, running the queries one at a time: {}", e.toString());
+
+                for (QueryGroup.Query query : queries)
+                  if (query.result != null)
+                    {
+                      query.result.close();
+                      query.result = null;
+                    }
+
+                if (combines == Boolean.TRUE)
+                  throw new DatabaseException(e);
+              }
+
+            executeSeparately(queries);
+
+            // the queries are fine on their own, so it's the combining the database doesn't do (a lock timeout, cancel, etc. says nothing about that)
+            if (unsupported)
+              metaData.setCombinesQueries(Boolean.FALSE);
+
+            return false;
+          }
+
+        executeSeparately(queries);
+
+        return false;
+      }
+
+    private void executeSeparately(List<QueryGroup.Query> queries) throws DatabaseException
+      {
+        try
+          {
+            for (QueryGroup.Query query : queries)
+              query.result = parameterizedQuery(query.cs, query.sql, query.parameters);
+          }
+        catch (DatabaseException e)
+          {
+            for (QueryGroup.Query query : queries)
+              if (query.result != null)
+                query.result.close();
+
+            throw e;
+          }
+      }
+
+    private void executeCombined(List<QueryGroup.Query> queries) throws Exception
+      {
+        StringBuilder sql = new StringBuilder();
+        List<Object> parameters = new ArrayList<Object>();
+
+        for (QueryGroup.Query query : queries)
+          {
+            String part = query.sql.trim();
+
+            while (part.endsWith(";"))
+              part = part.substring(0, part.length() - 1).trim();
+
+            if (sql.length() > 0)
+              sql.append(";\n");
+
+            sql.append(part);
+
+            if (query.parameters != null)
+              for (Object parameter : query.parameters)
+                parameters.add(parameter);
+          }
+
+        if (logger.isDebugEnabled())
+          {
+            logger.debug("sql = {}", sql);
+            logger.debug("parameters[] = {}", StringUtils.toString(parameters.toArray()));
+          }
+
+        PreparedStatement statement = getPreparedStatementForQuery(sql.toString());
+
+        setPreparedStatementObjects(statement, parameters.toArray());
+
+        boolean isResultSet = statement.execute();
+
+        for (int i = 0; i < queries.size(); i++)
+          {
+            while (!isResultSet && statement.getUpdateCount() != -1)
+              isResultSet = statement.getMoreResults(Statement.KEEP_CURRENT_RESULT);
+
+            if (!isResultSet)
+              throw new DatabaseException("Query " + (i + 1) + " of the query group did not return a result set");
+
+            QueryGroup.Query query = queries.get(i);
+
+            query.result = new Result(this, statement, statement.getResultSet(), false, query.cs);
+            cursors.add(query.result);
+
+            if (i < queries.size() - 1)
+              isResultSet = statement.getMoreResults(Statement.KEEP_CURRENT_RESULT);
+          }
+      }
+
     /**
      * Executes a SQL update.
      * 
@@ -1469,13 +1998,18 @@ public final class Database
           {
             CallableStatement statement = getCallableStatement(sql);
 
-            setCallableStatementObjects(statement, parameters);
+            if (parameters == null)
+              parameters = new CallableParameter[0];
+
+            getCallableBinder(parameters).bind(statement, parameters);
+
+            cursors.checkLimit(1);
 
             boolean rval = statement.execute();
             
             Result<T> result = new Result(this, statement, statement.getResultSet(), !rval, cs);
             
-            resultsList.add(result);
+            cursors.add(result);
             
             return result;
           }
@@ -1485,6 +2019,72 @@ public final class Database
           }
       }
 
+    /**
+     * Returns the binder plan for the current callable statement and these 
+     * parameters, compiling a new one if the arrangement changed.
+     */
+
+    private CallableBinder getCallableBinder(CallableParameter[] parameters)
+      {
+        CallableBinder binder = callableEntry != null ? callableEntry.binder : callableBinder;
+
+        if (binder == null || !binder.matches(parameters))
+          {
+            binder = CallableBinder.compile(parameters);
+
+            if (callableEntry != null)
+              callableEntry.binder = binder;
+            else
+              callableBinder = binder;
+          }
+
+        return binder;
+      }
+
+    /**
+     * Calls a stored procedure and loads object from it: the first row of 
+     * the procedure's result set (if it returns one) and the OUT and IN/OUT 
+     * parameters that have a name (see OutParameter(int, int, String)), which 
+     * are set with the object's matching setters.  The OUT parameters are read 
+     * with the JDBC getter for the setter's type.
+     *
+     * @param object the object to load
+     * @param sql The JDBC stored procedure syntax needed to call your stored procedure.  See java.sql.CallableStatement.
+     * @param parameters variable argument list of IN/OUT parameters. See InParameter, OutParameter, and InOutParameter
+     * @return returns the object passed in
+     * @throws DatabaseException 
+     * @see java.sql.CallableStatement
+     */
+    public <T> T storedProcedureForObject(T object, String sql, CallableParameter... parameters) throws DatabaseException
+      {
+        if (parameters == null)
+          parameters = new CallableParameter[0];
+
+        Result<T> result = storedProcedure((Class<T>)object.getClass(), sql, parameters);
+
+        try
+          {
+            if (result.getResultSet() != null && result.hasNext())
+              result.next(object);
+
+            getCallableBinder(parameters).mapOutParameters((CallableStatement)result.getStatement(), parameters, object);
+
+            return object;
+          }
+        catch (DatabaseException e)
+          {
+            throw e;
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+        finally
+          {
+            result.close();
+          }
+      }
+
     /**
      * Used to define IN/OUT parameters for stored procedures. Use InParameter, 
      * OutParameter, or InOutParameter
@@ -1494,6 +2094,7 @@ public final class Database
       {
         int position, sqlType, scale;
         Object value;
+        String name;
         
         CallableParameter() {}
       }
@@ -1529,6 +2130,27 @@ public final class Database
             this.sqlType = sqlType;
             this.scale = scale;
           }
+
+        /**
+         * Names the parameter, for storedProcedureForObject().
+         */
+        public OutParameter(int position, int sqlType, String name)
+          {
+            this.position = position;
+            this.sqlType = sqlType;
+            this.name = name;
+          }
+
+        /**
+         * Names the parameter, for storedProcedureForObject().
+         */
+        public OutParameter(int position, int sqlType, int scale, String name)
+          {
+            this.position = position;
+            this.sqlType = sqlType;
+            this.scale = scale;
+            this.name = name;
+          }
       }
     
     /**
@@ -1551,6 +2173,17 @@ public final class Database
             this.sqlType = sqlType;
             this.scale = scale;
           }
+
+        /**
+         * Names the parameter, for storedProcedureForObject().
+         */
+        public InOutParameter(int position, Object value, int sqlType, String name)
+          {
+            this.position = position;
+            this.value = value;
+            this.sqlType = sqlType;
+            this.name = name;
+          }
       }
 
     /**
@@ -1571,20 +2204,50 @@ public final class Database
      * @return true if using automatic JDBC transaction support.
      */
     public boolean getAutomaticTransactions() { return automaticTransactions; }
+
+    /**
+     * When true, saving an object binds its null properties as parameters 
+     * (setNull()) instead of leaving them out of the insert or writing 
+     * "= null" into the update.  Every object of a class then produces the 
+     * same SQL, so one prepared statement serves them all and a batch of 
+     * saves stays one batch per class.  Note that an inserted null replaces 
+     * a column default.  The default is false.
+     * 
+     * @param bindNullValues true to bind null properties as parameters
+     */
+    public void setBindNullValues(boolean bindNullValues)
+      {
+        this.bindNullValues = bindNullValues;
+      }
+
+    /**
+     * Returns the value of bindNullValues.
+     * 
+     * @return true if null properties are bound as parameters
+     */
+    public boolean getBindNullValues() { return bindNullValues; }
     
     /**
-     * See same in java.sql.Connection
+     * See same in java.sql.Connection.  The auto commit mode is remembered for 
+     * the life of the pooled connection, and the connection is only called 
+     * when the mode actually changes, so the mode should not be changed 
+     * directly on getConnection().
      *
      * @see java.sql.Connection
      */
     
     public void setAutoCommit(boolean autoCommit) throws DatabaseException
       {
+        if (connectionAutoCommit != null && connectionAutoCommit.booleanValue() == autoCommit)
+          return;
+
         logger.debug("Setting auto commit to {}", autoCommit);
         
         try
           {
+            connectionAutoCommit = null;
             getConnection().setAutoCommit(autoCommit);
+            connectionAutoCommit = autoCommit;
           }
         catch (Exception e)
           {
@@ -1623,9 +2286,12 @@ public final class Database
     
     public boolean getAutoCommit() throws DatabaseException
       {
+        if (connectionAutoCommit != null)
+          return connectionAutoCommit;
+
         try
           {
-            return getConnection().getAutoCommit();
+            return connectionAutoCommit = getConnection().getAutoCommit();
           }
         catch (Exception e)
           {
@@ -1779,6 +2445,7 @@ public final class Database
               {
                 closeUpdateStatement();
                 batchStatements = new HashMap<String, Statement>();
+                batchStatementSettings = new HashMap<Statement, StatementSettings>();
                 batchExecuteOrder = new ArrayList<Statement>();
                 
               }
@@ -1858,10 +2525,12 @@ public final class Database
                       statement.close();
 
                     batchStatements.clear();
+                    batchStatementSettings.clear();
                     batchExecuteOrder.clear();
                   }
 
                 batchStatements = null;
+                batchStatementSettings = null;
                 batchExecuteOrder = null;
                 updateStatement = null;
               }
@@ -1963,68 +2632,5 @@ public final class Database
             throw new DatabaseException(e);
           }
       }
-
-    static void setCallableStatementObjects(CallableStatement callableStatement, CallableParameter... parameters) throws DatabaseException
-      {
-        try
-          {
-            for (CallableParameter callableParameter : parameters)
-              {
-                if (callableParameter instanceof OutParameter || callableParameter instanceof InOutParameter)
-                  {
-                    callableStatement.registerOutParameter(callableParameter.position, callableParameter.sqlType, callableParameter.scale);
-                  }
-
-                if (callableParameter instanceof InParameter || callableParameter instanceof InOutParameter)
-                  {
-                    int position = callableParameter.position;
-                    Object value = callableParameter.value;
-                  
-                    if (value instanceof NullValue)
-                      callableStatement.setNull(position, ((NullValue)value).getSqlType());
-                    else if (value instanceof Array)
-                      callableStatement.setArray(position, (Array)value);
-                    else if (value instanceof BigDecimal)
-                      callableStatement.setBigDecimal(position, (BigDecimal)value);
-                    else if (value instanceof Blob)
-                      callableStatement.setBlob(position, (Blob)value);
-                    else if (value instanceof Clob)
-                      callableStatement.setClob(position, (Clob)value);
-                    else if (value instanceof Date)
-                      callableStatement.setDate(position, (Date)value);
-                    else if (value instanceof InputStream)
-                      {
-                        throw new DatabaseException("Must use ejp.interfaces.AsciiStream or ejp.interfaces.BinaryStream instead of InputStream");
-                      }
-                    else if (value instanceof AsciiStream)
-                      callableStatement.setAsciiStream(position, ((AsciiStream)value).getInputStream(), ((AsciiStream)value).getLength());
-                    else if (value instanceof BinaryStream)
-                      callableStatement.setBinaryStream(position, ((BinaryStream)value).getInputStream(), ((BinaryStream)value).getLength());
-                    else if (value instanceof Reader)
-                      {
-                        throw new DatabaseException("Must use ejp.interfaces.CharacterStream instead of Reader");
-                      }
-                    else if (value instanceof CharacterStream)
-                      callableStatement.setCharacterStream(position, ((CharacterStream)value).getReader(), ((CharacterStream)value).getLength());
-                    else if (value instanceof Ref)
-                      callableStatement.setRef(position, (Ref)value);
-                    else if (value instanceof String)
-                      callableStatement.setString(position, (String)value);
-                    else if (value instanceof Time)
-                      callableStatement.setTime(position, (Time)value);
-                    else if (value instanceof Timestamp)
-                      callableStatement.setTimestamp(position, (Timestamp)value);
-                    else if (value instanceof URL)
-                      callableStatement.setURL(position, (URL)value);
-                    else
-                      callableStatement.setObject(position, value);
-                  }
-              }
-          }
-        catch (SQLException e)
-          {
-            throw new DatabaseException(e);
-          }
-      }
   }
 
@@ -22,6 +22,7 @@ public class DatabaseException extends CommonException
     private static final long serialVersionUID = 100L;
     public static final String DATABASE_CLOSED = "Database is closed";
     public static final String SQL_STATEMENT_NULL = "SQL statement is null or empty";
+    public static final String DEADLINE_EXCEEDED = "Deadline exceeded";
     
     public DatabaseException(String message) { super(message); }
     public DatabaseException(String message, Throwable cause) { super(message, cause); }
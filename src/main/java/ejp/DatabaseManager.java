@@ -16,25 +16,31 @@
 package ejp;
 
 import ejp.PersistentClassManager.ClassInformation;
-import javax.naming.NamingException;
+import ejp.interfaces.ConnectionProvider;
 import ejp.utilities.XMLParser;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
 import java.net.URL;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
-import javax.naming.InitialContext;
 import javax.sql.DataSource;
 import ejp.utilities.StringUtils;
 import ejp.utilities.XMLParserException;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import ejp.utilities.ResultSetUtils;
 import java.util.HashSet;
 import java.util.Set;
@@ -52,22 +58,30 @@ import org.w3c.dom.NodeList;
 @SuppressWarnings("unchecked")
 public final class DatabaseManager
   {
-    private static final int CONNECTION_SOURCE_IS_UNDEFINED = 0;
-    private static final int CONNECTION_SOURCE_IS_JNDI = 1;
-    private static final int CONNECTION_SOURCE_IS_DATA_SOURCE = 2;
-    private static final int CONNECTION_SOURCE_IS_DRIVER_MANAGER = 3;
-    
+    public static final int PRIORITY_INTERACTIVE = 0;
+    public static final int PRIORITY_BATCH = 1;
+
     private static Logger logger = LoggerFactory.getLogger(DatabaseManager.class);
     private static Map dbDefinitionsMap = new HashMap();
     
-    private String databaseName, databaseDriver, databaseUrl, databaseUsername, databasePassword, catalogPattern, schemaPattern;
-    private int maxPoolSize, databasesAllocated, connectionSourceType = CONNECTION_SOURCE_IS_UNDEFINED;
+    private String databaseName, catalogPattern, schemaPattern;
+    private int maxPoolSize, statementCacheSize = 32;
+    private AtomicLong statementCacheHitCount = new AtomicLong(), statementCacheMissCount = new AtomicLong();
+    private long borrowTimeout = 30000;
     private Integer fetchSize, maxRows, resultSetType, resultSetConcurrency;
-    private List connectionsList = Collections.synchronizedList(new ArrayList()),
-                 databaseFreePool = Collections.synchronizedList(new ArrayList());
-    private DataSource dataSource;
-    private boolean isClosed, automaticTransactions = true;
+    private int maxOpenCursors, openCursorPolicy = Database.CURSORS_CLOSE_OLDEST;
+    private DatabasePool databasePool;
+    private PoolHousekeeper poolHousekeeper;
+    private PoolSizer poolSizer;
+    private ConnectionProvider connectionProvider;
+    private volatile boolean isClosed;
+    private boolean automaticTransactions = true, threadAffinity, bindNullValues;
+    // held weakly, so a thread doesn't keep a database (its statements and connection) once the pool has let go of it
+    private ThreadLocal<WeakReference<Database>> lastReleasedDatabase = new ThreadLocal<WeakReference<Database>>();
+    private ThreadLocal<Long> deadlines = new ThreadLocal<Long>();
+    private volatile MetaData metaData;
     DatabaseManager.PersistentClassManager persistentClassManager = new PersistentClassManager();
+    final FetchSizeAdvisor fetchSizeAdvisor = new FetchSizeAdvisor();
 
     static
       {
@@ -108,7 +122,10 @@ public final class DatabaseManager
 
                 String name = StringUtils.emptyToDefault(e2.getAttribute("name"),null),
                        useJndi = StringUtils.emptyToDefault(e2.getAttribute("useJndi"),null),
+                       poolConnections = StringUtils.emptyToDefault(e2.getAttribute("poolConnections"),null),
                        poolSize = StringUtils.emptyToDefault(e2.getAttribute("poolSize"),"10"),
+                       minPoolSize = StringUtils.emptyToDefault(e2.getAttribute("minPoolSize"),"0"),
+                       borrowTimeout = StringUtils.emptyToDefault(e2.getAttribute("borrowTimeout"),"30000"),
                        driver = StringUtils.emptyToDefault(e2.getAttribute("driver"),null),
                        url = StringUtils.emptyToDefault(e2.getAttribute("url"),null),
                        catalogPattern = StringUtils.emptyToDefault(e2.getAttribute("catalogPattern"),null),
@@ -116,7 +133,7 @@ public final class DatabaseManager
                        user = StringUtils.emptyToDefault(e2.getAttribute("username"),null),
                        password = StringUtils.emptyToDefault(e2.getAttribute("password"),null);
 
-                DefinedDatabase dd = new DefinedDatabase(name, driver, url, catalogPattern, schemaPattern, user, password, new Integer(poolSize).intValue(), useJndi == null ? false : new Boolean(useJndi).booleanValue());
+                DefinedDatabase dd = new DefinedDatabase(name, driver, url, catalogPattern, schemaPattern, user, password, new Integer(minPoolSize).intValue(), new Integer(poolSize).intValue(), new Long(borrowTimeout).longValue(), useJndi == null ? false : new Boolean(useJndi).booleanValue(), poolConnections == null ? false : new Boolean(poolConnections).booleanValue());
 
                 dbDefinitionsMap.put(name, dd);
 
@@ -128,10 +145,11 @@ public final class DatabaseManager
     static class DefinedDatabase
       {
         String name, driver, url, catalogPattern, schemaPattern, user, password;
-        int poolSize;
-        boolean useJndi;
+        int minPoolSize, poolSize;
+        long borrowTimeout;
+        boolean useJndi, poolConnections;
         
-        DefinedDatabase(String name, String driver, String url, String catalogPattern, String schemaPattern, String user, String password, int poolSize, boolean useJndi)
+        DefinedDatabase(String name, String driver, String url, String catalogPattern, String schemaPattern, String user, String password, int minPoolSize, int poolSize, long borrowTimeout, boolean useJndi, boolean poolConnections)
           {
             this.name = name;
             this.driver = driver;
@@ -140,8 +158,11 @@ public final class DatabaseManager
             this.schemaPattern = schemaPattern;
             this.user = user;
             this.password = password;
+            this.minPoolSize = minPoolSize;
             this.poolSize = poolSize;
+            this.borrowTimeout = borrowTimeout;
             this.useJndi = useJndi;
+            this.poolConnections = poolConnections;
           }
         
         String getName() { return name; }
@@ -151,15 +172,18 @@ public final class DatabaseManager
         String getSchemaPattern() { return schemaPattern; }
         String getUsername() { return user; }
         String getPassword() { return password; }
+        int getMinPoolSize() { return minPoolSize; }
         int getPoolSize() { return poolSize; }
+        long getBorrowTimeout() { return borrowTimeout; }
         boolean useJndi() { return useJndi; }
+        boolean poolConnections() { return poolConnections; }
         
         public String toString()
           {
             if (useJndi)
-              return "Name: " + name + ", poolsize = " + poolSize + ", useJndi = true, url = " + url + ", catalogPattern = " + catalogPattern + ", schemaPattern = " + schemaPattern + ", user = " + user + ", password = " + password;
+              return "Name: " + name + ", minPoolSize = " + minPoolSize + ", poolsize = " + poolSize + ", borrowTimeout = " + borrowTimeout + ", useJndi = true, poolConnections = " + poolConnections + ", url = " + url + ", catalogPattern = " + catalogPattern + ", schemaPattern = " + schemaPattern + ", user = " + user + ", password = " + password;
             else
-              return "Name: " + name + ", poolsize = " + poolSize + ", driver = " + driver + ", url = " + url + ", catalogPattern = " + catalogPattern + ", schemaPattern = " + schemaPattern + ", user = " + user + ", password = " + password;
+              return "Name: " + name + ", minPoolSize = " + minPoolSize + ", poolsize = " + poolSize + ", borrowTimeout = " + borrowTimeout + ", driver = " + driver + ", url = " + url + ", catalogPattern = " + catalogPattern + ", schemaPattern = " + schemaPattern + ", user = " + user + ", password = " + password;
           }
       }
 
@@ -169,8 +193,8 @@ public final class DatabaseManager
      * 
      * <pre>
      *     &lt;databases&gt;
-     *         &lt;database name="" useJndi="" url="" [poolSize=""] [catalogPattern=""] [schemaPattern=""] [user=""] [password=""] /&gt;
-     *         &lt;database name="" driver="" url="" [poolSize=""] [catalogPattern=""] [schemaPattern=""] [user=""] [password=""] /&gt;
+     *         &lt;database name="" useJndi="" url="" [poolConnections=""] [minPoolSize=""] [poolSize=""] [borrowTimeout=""] [catalogPattern=""] [schemaPattern=""] [user=""] [password=""] /&gt;
+     *         &lt;database name="" driver="" url="" [minPoolSize=""] [poolSize=""] [borrowTimeout=""] [catalogPattern=""] [schemaPattern=""] [user=""] [password=""] /&gt;
      *     &lt;/databases&gt;
      * </pre>
      * 
@@ -194,7 +218,12 @@ public final class DatabaseManager
         if (definedDatabase != null)
           {
             if (definedDatabase.useJndi())
-              databaseManager = new DatabaseManager(dbName, definedDatabase.getPoolSize(), definedDatabase.getUrl());
+              {
+                JndiConnectionProvider connectionProvider = new JndiConnectionProvider(definedDatabase.getUrl());
+
+                connectionProvider.setPooling(definedDatabase.poolConnections());
+                databaseManager = new DatabaseManager(dbName, definedDatabase.getPoolSize(), connectionProvider);
+              }
             else
               {
                 if (definedDatabase.getUsername() == null)
@@ -203,11 +232,15 @@ public final class DatabaseManager
                   databaseManager = new DatabaseManager(dbName, definedDatabase.getPoolSize(), definedDatabase.getDriver(), definedDatabase.getUrl(), definedDatabase.getUsername(), definedDatabase.getPassword());
               }
 
+            databaseManager.setBorrowTimeout(definedDatabase.getBorrowTimeout());
+
             if (definedDatabase.getCatalogPattern() != null)
               databaseManager.setCatalogPattern(definedDatabase.getCatalogPattern());
 
             if (definedDatabase.getSchemaPattern() != null)
               databaseManager.setSchemaPattern(definedDatabase.getSchemaPattern());
+
+            databaseManager.warmUp(definedDatabase.getMinPoolSize());
           }
         
         return databaseManager;
@@ -284,6 +317,100 @@ public final class DatabaseManager
         return new DatabaseManager(databaseName, poolSize, dataSource);
       }
     
+    /**
+     * Create a DatabaseManager instance using JNDI, and open minPoolSize 
+     * connections in parallel.
+     * 
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param jndiUri the JNDI URI
+     */
+    
+    public static DatabaseManager getDatabaseManager(String databaseName, int minPoolSize, int poolSize, String jndiUri)
+      {
+        return new DatabaseManager(databaseName, minPoolSize, poolSize, jndiUri);
+      }
+    
+    /**
+     * Create a DatabaseManager instance using JNDI, and open minPoolSize 
+     * connections in parallel.
+     * 
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param jndiUri the JNDI URI
+     * @param username the username to use for signon
+     * @param password the password to use for signon
+     */
+    
+    public static DatabaseManager getDatabaseManager(String databaseName, int minPoolSize, int poolSize, String jndiUri, String username, String password)
+      {
+        return new DatabaseManager(databaseName, minPoolSize, poolSize, jndiUri, username, password);
+      }
+    
+    /**
+     * Create a DatabaseManager instance using a supplied database driver, and 
+     * open minPoolSize connections in parallel.
+     *
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param driver the database driver class name
+     * @param url the driver oriented database url
+     */
+    
+    public static DatabaseManager getDatabaseManager(String databaseName, int minPoolSize, int poolSize, String driver, String url)
+      {
+        return new DatabaseManager(databaseName, minPoolSize, poolSize, driver, url);
+      }
+    
+    /**
+     * Create a DatabaseManager instance using a supplied database driver, and 
+     * open minPoolSize connections in parallel.
+     *
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param driver the database driver class name
+     * @param url the driver oriented database url
+     * @param username the username to use for signon
+     * @param password the password to use for signon
+     */
+    
+    public static DatabaseManager getDatabaseManager(String databaseName, int minPoolSize, int poolSize, String driver, String url, String username, String password)
+      {
+        return new DatabaseManager(databaseName, minPoolSize, poolSize, driver, url, username, password);
+      }
+    
+    /**
+     * Create a DatabaseManager instance using a supplied DataSource, and open 
+     * minPoolSize connections in parallel.
+     *
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param dataSource the data source that supplies connections
+     */
+    
+    public static DatabaseManager getDatabaseManager(String databaseName, int minPoolSize, int poolSize, DataSource dataSource)
+      {
+        return new DatabaseManager(databaseName, minPoolSize, poolSize, dataSource);
+      }
+    
+    /**
+     * Create a DatabaseManager instance using a supplied ConnectionProvider.
+     *
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param poolSize the number of instances to manage
+     * @param connectionProvider the provider that supplies connections
+     */
+    
+    public static DatabaseManager getDatabaseManager(String databaseName, int poolSize, ConnectionProvider connectionProvider)
+      {
+        return new DatabaseManager(databaseName, poolSize, connectionProvider);
+      }
+    
     /**
      * Create a DatabaseManager instance using a supplied DataSource.
      *
@@ -294,12 +421,7 @@ public final class DatabaseManager
     
     public DatabaseManager(String databaseName, int poolSize, DataSource dataSource)
       {
-        logger.debug("Creating new DatabaseManager: name = {}, poolSize = {}", databaseName, poolSize);
-      
-        this.databaseName = databaseName;
-        this.maxPoolSize = poolSize;
-        this.dataSource = dataSource;
-        this.connectionSourceType = CONNECTION_SOURCE_IS_DATA_SOURCE;
+        this(databaseName, poolSize, new DataSourceConnectionProvider(dataSource));
       }
     
     /**
@@ -312,12 +434,7 @@ public final class DatabaseManager
     
     public DatabaseManager(String databaseName, int poolSize, String jndiUri)
       {
-        logger.debug("Creating new DatabaseManager: name = {}, poolSize = {}, jndiUrl = {}", new Object[] {databaseName, poolSize, jndiUri});
-      
-        this.databaseName = databaseName;
-        this.maxPoolSize = poolSize;
-        this.databaseUrl = jndiUri;
-        this.connectionSourceType = CONNECTION_SOURCE_IS_JNDI;
+        this(databaseName, poolSize, new JndiConnectionProvider(jndiUri));
       }
     
     /**
@@ -332,15 +449,7 @@ public final class DatabaseManager
     
     public DatabaseManager(String databaseName, int poolSize, String jndiUri, String username, String password)
       {
-        logger.debug("Creating new DatabaseManager: name = {}, poolSize = {}, jndiUrl = {}, username = {}, password = {}",
-                     new Object[] {databaseName, poolSize, jndiUri, username, password});
-      
-        this.databaseName = databaseName;
-        this.maxPoolSize = poolSize;
-        this.databaseUrl = jndiUri;
-        this.databaseUsername = username;
-        this.databasePassword = password;
-        this.connectionSourceType = CONNECTION_SOURCE_IS_JNDI;
+        this(databaseName, poolSize, new JndiConnectionProvider(jndiUri, username, password));
       }
     
     /**
@@ -354,14 +463,7 @@ public final class DatabaseManager
     
     public DatabaseManager(String databaseName, int poolSize, String driver, String url)
       {
-        logger.debug("Creating new DatabaseManager: name = {}, poolSize = {}, driver = {}, url = {}",
-                     new Object[] {databaseName, poolSize, driver, url});
-
-        this.databaseName = databaseName;
-        this.maxPoolSize = poolSize;
-        this.databaseDriver = driver;
-        this.databaseUrl = url;
-        this.connectionSourceType = CONNECTION_SOURCE_IS_DRIVER_MANAGER;
+        this(databaseName, poolSize, new DriverManagerConnectionProvider(driver, url));
       }
     
     /**
@@ -377,18 +479,216 @@ public final class DatabaseManager
     
     public DatabaseManager(String databaseName, int poolSize, String driver, String url, String username, String password)
       {
-        logger.debug("Creating new DatabaseManager: name = {}, poolSize = {}, driver = {}, url = {}, username = {}, password = {}",
-                     new Object[] {databaseName, poolSize, driver, url, username, password});
+        this(databaseName, poolSize, new DriverManagerConnectionProvider(driver, url, username, password));
+      }
 
+    /**
+     * Create a DatabaseManager instance using a supplied ConnectionProvider.
+     *
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param poolSize the number of instances to manage
+     * @param connectionProvider the provider that supplies connections
+     */
+    
+    public DatabaseManager(String databaseName, int poolSize, ConnectionProvider connectionProvider)
+      {
+        logger.debug("Creating new DatabaseManager: name = {}, poolSize = {}, connectionProvider = {}", 
+                     new Object[] {databaseName, poolSize, connectionProvider});
+      
         this.databaseName = databaseName;
         this.maxPoolSize = poolSize;
-        this.databaseDriver = driver;
-        this.databaseUrl = url;
-        this.databaseUsername = username;
-        this.databasePassword = password;
-        this.connectionSourceType = CONNECTION_SOURCE_IS_DRIVER_MANAGER;
+        this.databasePool = new DatabasePool(poolSize);
+        this.poolHousekeeper = new PoolHousekeeper(databaseName, databasePool);
+        this.poolSizer = new PoolSizer(databaseName, databasePool);
+        this.connectionProvider = connectionProvider;
+      }
+    
+    /**
+     * Create a DatabaseManager instance using a supplied ConnectionProvider, 
+     * and open minPoolSize connections in parallel.
+     *
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param connectionProvider the provider that supplies connections
+     */
+    
+    public DatabaseManager(String databaseName, int minPoolSize, int poolSize, ConnectionProvider connectionProvider)
+      {
+        this(databaseName, poolSize, connectionProvider);
+        
+        warmUp(minPoolSize);
+      }
+    
+    /**
+     * Create a DatabaseManager instance using a supplied DataSource, and open 
+     * minPoolSize connections in parallel.
+     *
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param dataSource the data source that supplies connections
+     */
+    
+    public DatabaseManager(String databaseName, int minPoolSize, int poolSize, DataSource dataSource)
+      {
+        this(databaseName, poolSize, dataSource);
+        
+        warmUp(minPoolSize);
+      }
+    
+    /**
+     * Create a DatabaseManager instance using JNDI, and open minPoolSize 
+     * connections in parallel.
+     * 
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param jndiUri the JNDI URI
+     */
+    
+    public DatabaseManager(String databaseName, int minPoolSize, int poolSize, String jndiUri)
+      {
+        this(databaseName, poolSize, jndiUri);
+        
+        warmUp(minPoolSize);
+      }
+    
+    /**
+     * Create a DatabaseManager instance using JNDI, and open minPoolSize 
+     * connections in parallel.
+     * 
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param jndiUri the JNDI URI
+     * @param username the username to use for signon
+     * @param password the password to use for signon
+     */
+    
+    public DatabaseManager(String databaseName, int minPoolSize, int poolSize, String jndiUri, String username, String password)
+      {
+        this(databaseName, poolSize, jndiUri, username, password);
+        
+        warmUp(minPoolSize);
+      }
+    
+    /**
+     * Create a DatabaseManager instance using a supplied database driver, and 
+     * open minPoolSize connections in parallel.
+     *
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param driver the database driver class name
+     * @param url the driver oriented database url
+     */
+    
+    public DatabaseManager(String databaseName, int minPoolSize, int poolSize, String driver, String url)
+      {
+        this(databaseName, poolSize, driver, url);
+        
+        warmUp(minPoolSize);
+      }
+    
+    /**
+     * Create a DatabaseManager instance using a supplied database driver, and 
+     * open minPoolSize connections in parallel.
+     *
+     * @param databaseName the name to associate with the DatabaseManager instance
+     * @param minPoolSize the number of instances to open at startup
+     * @param poolSize the number of instances to manage
+     * @param driver the database driver class name
+     * @param url the driver oriented database url
+     * @param username the username to use for signon
+     * @param password the password to use for signon
+     */
+    
+    public DatabaseManager(String databaseName, int minPoolSize, int poolSize, String driver, String url, String username, String password)
+      {
+        this(databaseName, poolSize, driver, url, username, password);
+        
+        warmUp(minPoolSize);
       }
 
+    /**
+     * Opens minPoolSize databases in parallel and pre-loads the MetaData for 
+     * the database url, so the first requests don't pay for connection setup.
+     * Connections pooled by the manager stay in the pool, and housekeeping 
+     * won't let idle timeouts shrink the pool below minPoolSize.  Warming up 
+     * is best effort; failures are logged and connections are then opened on 
+     * demand.
+     */
+
+    private void warmUp(int minPoolSize)
+      {
+        final int count = Math.min(minPoolSize, maxPoolSize);
+        
+        if (count <= 0)
+          return;
+
+        logger.debug("Warming up {} with {} databases", databaseName, count);
+
+        poolHousekeeper.setMinIdle(count);
+
+        List<Callable<Database>> tasks = new ArrayList<Callable<Database>>();
+        List<Database> databases = new ArrayList<Database>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(count, 8), new ThreadFactory()
+          {
+            public Thread newThread(Runnable runnable)
+              {
+                Thread thread = new Thread(runnable, "ejp-warmup-" + databaseName);
+                thread.setDaemon(true);
+                
+                return thread;
+              }
+          });
+
+        for (int i = 0; i < count; i++)
+          tasks.add(new Callable<Database>()
+            {
+              public Database call() throws DatabaseException
+                {
+                  return getDatabase();
+                }
+            });
+
+        try
+          {
+            for (Future<Database> future : executor.invokeAll(tasks))
+              try
+                {
+                  databases.add(future.get());
+                }
+              catch (ExecutionException e)
+                {
+                  logger.error("Warm up failed for " + databaseName + ": " + e.getCause().toString(), e.getCause());
+                }
+
+            if (!databases.isEmpty())
+              databases.get(0).getMetaData();
+          }
+        catch (Exception e)
+          {
+            logger.error("Warm up failed for " + databaseName + ": " + e.toString(), e);
+          }
+        finally
+          {
+            executor.shutdown();
+
+            for (Database db : databases)
+              db.close();
+          }
+      }
+
+    /**
+     * Returns the ConnectionProvider that supplies connections to this manager.
+     * 
+     * @return the ConnectionProvider
+     */
+    
+    public ConnectionProvider getConnectionProvider() { return connectionProvider; }
+    
     /**
      * Returns the database name.
      * @return the database name
@@ -397,26 +697,36 @@ public final class DatabaseManager
     public String getDatabaseName() { return databaseName; }
     
     /**
-     * Closes all resources associated with the DatabaseManager.  If the DatabaseManager 
-     * is managing pooled connections via JNDI, then this method does nothing.  However, 
-     * if the connections are allocated by the manager (non-JNDI), they will be closed.
+     * Closes all resources associated with the DatabaseManager.  If the connections 
+     * are pooled externally (JNDI and DataSource by default), then this method does 
+     * nothing.  However, if the connections are pooled by the manager (driver 
+     * based, or a ConnectionProvider that is pooling), they will be closed.
      */
     public void close() throws DatabaseException
       {
         if (!isClosed)
           try
             {
-              if (getDatabase().getConnection().getMetaData().getURL().indexOf("hsql") != -1)
-                getDatabase().executeUpdate("shutdown;");
-
-              if (connectionSourceType == CONNECTION_SOURCE_IS_DRIVER_MANAGER)
-                synchronized(connectionsList)
-                  {
-                    for (Iterator it = connectionsList.iterator(); it.hasNext();)
-                      ((Connection)it.next()).close();
-                  }
-              
+              Database db = getDatabase();
+
+              try
+                {
+                  if (db.getMetaData().getDialect() == MetaData.DIALECT_HSQLDB)
+                    db.executeUpdate("shutdown;");
+                }
+              finally
+                {
+                  db.close();
+                }
+
               isClosed = true;
+              lastReleasedDatabase.remove();
+              poolHousekeeper.stop();
+              poolSizer.stop();
+
+              if (connectionProvider.isPooling())
+                for (Database idle = databasePool.pollIdle(); idle != null; idle = databasePool.pollIdle())
+                  idle.getConnection().close();
             }
           catch (Exception e)
             {
@@ -453,6 +763,9 @@ public final class DatabaseManager
     
     public MetaData getMetaData() throws DatabaseException
       { 
+        if (metaData != null)
+          return metaData;
+
         try
           {
             Database db = getDatabase();
@@ -523,6 +836,75 @@ public final class DatabaseManager
         
         this.fetchSize = fetchSize; 
       }
+
+    /**
+     * Sets the open cursor limit and policy for the databases returned by 
+     * getDatabase().  See Database.setOpenCursorLimit().
+     * 
+     * @param maxOpenCursors the maximum number of open results per database, or zero
+     * @param policy Database.CURSORS_CLOSE_OLDEST or Database.CURSORS_FAIL
+     */
+
+    public void setOpenCursorLimit(int maxOpenCursors, int policy)
+      {
+        logger.debug("Setting open cursor limit to {}, policy = {}", maxOpenCursors, policy);
+
+        if (policy != Database.CURSORS_CLOSE_OLDEST && policy != Database.CURSORS_FAIL)
+          throw new IllegalArgumentException("Invalid open cursor policy: " + policy);
+
+        this.maxOpenCursors = maxOpenCursors;
+        this.openCursorPolicy = policy;
+      }
+
+    /**
+     * Turns on adaptive fetch sizes.  For each query (by its SQL) the rows 
+     * read and the approximate row width are recorded when its Result is 
+     * closed, and the next execution gets a fetch size that fits: the expected 
+     * rows plus one (so point lookups don't allocate large buffers), limited 
+     * so that one fetch stays within the fetch buffer size (so large scans 
+     * make few round trips without buffering too much), and kept between 
+     * minFetchSize and maxFetchSize.  Until a query has been seen, the fetch 
+     * size set with setFetchSize() is used.
+     * 
+     * @param minFetchSize the smallest fetch size to use
+     * @param maxFetchSize the largest fetch size to use
+     */
+
+    public void setAdaptiveFetchSize(int minFetchSize, int maxFetchSize)
+      {
+        logger.debug("Setting adaptive fetch size to {} - {}", minFetchSize, maxFetchSize);
+
+        if (minFetchSize < 1 || maxFetchSize < minFetchSize)
+          throw new IllegalArgumentException("Invalid fetch size bounds: " + minFetchSize + " - " + maxFetchSize);
+
+        fetchSizeAdvisor.setBounds(minFetchSize, maxFetchSize);
+        fetchSizeAdvisor.setEnabled(true);
+      }
+
+    /**
+     * Turns off adaptive fetch sizes and forgets what was recorded.
+     */
+
+    public void stopAdaptiveFetchSize()
+      {
+        logger.debug("Stopping adaptive fetch size");
+
+        fetchSizeAdvisor.setEnabled(false);
+      }
+
+    /**
+     * Sets the number of bytes one fetch should stay within when adaptive 
+     * fetch sizes are on.  The default is 262144 (256K).
+     * 
+     * @param fetchBufferSize the buffer size in bytes
+     */
+
+    public void setFetchBufferSize(long fetchBufferSize)
+      {
+        logger.debug("Setting fetch buffer size to {}", fetchBufferSize);
+
+        fetchSizeAdvisor.setFetchBufferSize(fetchBufferSize);
+      }
     
     /**
      * If you are using JTA or some other transaction API and do not want JDBC 
@@ -536,6 +918,19 @@ public final class DatabaseManager
         this.automaticTransactions = usingExternalTransactions;
       }
     
+    /**
+     * Sets bindNullValues for the databases returned by getDatabase().  See 
+     * Database.setBindNullValues().  The default is false.
+     * 
+     * @param bindNullValues true to bind null properties as parameters
+     */
+    public void setBindNullValues(boolean bindNullValues)
+      {
+        logger.debug("Setting bind null values to {}", bindNullValues);
+
+        this.bindNullValues = bindNullValues;
+      }
+    
     /**
      * See same in java.sql.Statement
      *
@@ -550,7 +945,10 @@ public final class DatabaseManager
       }
     
     /**
-     * Defaults to ResultSet.TYPE_SCROLL_INSENSITIVE.
+     * Defaults to ResultSet.TYPE_FORWARD_ONLY.  Set a scrollable type, such as
+     * ResultSet.TYPE_SCROLL_INSENSITIVE, if the databases you get are going to
+     * use Result.previous(), first(), last() and the like.  loadObject(),
+     * loadObjects() and association loading always use forward only cursors.
      * 
      * @see java.sql.Connection
      * @see java.sql.ResultSet
@@ -581,6 +979,300 @@ public final class DatabaseManager
         this.resultSetConcurrency = resultSetConcurrency;
       }
 
+    /**
+     * Sets the number of milliseconds getDatabase() will wait for a database 
+     * to be released when the pool is exhausted.  Waiting borrowers are served 
+     * in the order they arrived.  A timeout of zero fails immediately.  The 
+     * default is 30000, and it can also be set with databases.xml.
+     * 
+     * @param borrowTimeout the timeout in milliseconds
+     */
+    
+    public void setBorrowTimeout(long borrowTimeout)
+      {
+        logger.debug("Setting borrow timeout to {}", borrowTimeout);
+        
+        this.borrowTimeout = borrowTimeout;
+      }
+    
+    /**
+     * Returns the number of milliseconds getDatabase() will wait for a database.
+     * 
+     * @return the borrow timeout in milliseconds
+     */
+    
+    public long getBorrowTimeout() { return borrowTimeout; }
+
+    /**
+     * Sets a deadline (in System.currentTimeMillis() terms) for the calling 
+     * thread.  Until it's cleared, every database this thread gets from 
+     * getDatabase(), including the ones used by loadObject(), saveObject(), 
+     * TransactionManager and UpdateManager, carries the deadline (see 
+     * Database.setDeadline()), and getDatabase() waits no longer than the 
+     * time remaining.  Zero clears the deadline.
+     * 
+     * @param deadline the deadline in milliseconds since the epoch, or zero
+     */
+
+    public void setDeadline(long deadline)
+      {
+        logger.debug("Setting deadline for this thread to {}", deadline);
+
+        if (deadline > 0)
+          deadlines.set(deadline);
+        else
+          deadlines.remove();
+      }
+
+    /**
+     * Sets the calling thread's deadline to the given number of milliseconds 
+     * from now.
+     * 
+     * @param milliseconds the time budget
+     *
+     * @see #setDeadline(long)
+     */
+
+    public void setTimeBudget(long milliseconds)
+      {
+        setDeadline(System.currentTimeMillis() + Math.max(1, milliseconds));
+      }
+
+    /**
+     * Clears the calling thread's deadline.
+     */
+
+    public void clearDeadline() { setDeadline(0); }
+
+    /**
+     * Returns the calling thread's deadline, or zero if there isn't one.
+     * 
+     * @return the deadline in milliseconds since the epoch
+     */
+
+    public long getDeadline()
+      {
+        Long deadline = deadlines.get();
+
+        return deadline != null ? deadline : 0;
+      }
+    
+    /**
+     * Sets how often, in milliseconds, the housekeeping thread checks idle 
+     * connections pooled by the manager (see ConnectionProvider.isPooling()).  A value
+     * of zero disables housekeeping, stopping its thread if it's running.
+     * The default is 30000.
+     * 
+     * @param housekeepingInterval the interval in milliseconds
+     */
+    
+    public void setHousekeepingInterval(long housekeepingInterval)
+      {
+        if (housekeepingInterval < 0)
+          throw new IllegalArgumentException("Invalid housekeeping interval: " + housekeepingInterval);
+
+        logger.debug("Setting housekeeping interval to {}", housekeepingInterval);
+        
+        poolHousekeeper.setInterval(housekeepingInterval);
+      }
+    
+    /**
+     * Sets the number of seconds to wait for Connection.isValid() when 
+     * housekeeping validates an idle connection.  The default is 5.
+     * 
+     * @param validationTimeout the timeout in seconds
+     */
+    
+    public void setValidationTimeout(int validationTimeout)
+      {
+        logger.debug("Setting validation timeout to {}", validationTimeout);
+        
+        poolHousekeeper.setValidationTimeout(validationTimeout);
+      }
+    
+    /**
+     * Sets the maximum lifetime, in milliseconds, of a connection pooled by 
+     * the manager.  Older idle connections are closed by housekeeping and 
+     * replaced on demand.  A value of zero disables it.  The default is 1800000.
+     * 
+     * @param maxLifetime the lifetime in milliseconds
+     */
+    
+    public void setMaxLifetime(long maxLifetime)
+      {
+        logger.debug("Setting connection max lifetime to {}", maxLifetime);
+        
+        poolHousekeeper.setMaxLifetime(maxLifetime);
+      }
+    
+    /**
+     * Sets the time, in milliseconds, a connection pooled by the manager can 
+     * sit idle before housekeeping closes it.  A value of zero disables it.  
+     * The default is 600000.
+     * 
+     * @param idleTimeout the timeout in milliseconds
+     */
+    
+    public void setIdleTimeout(long idleTimeout)
+      {
+        logger.debug("Setting connection idle timeout to {}", idleTimeout);
+        
+        poolHousekeeper.setIdleTimeout(idleTimeout);
+      }
+    
+    /**
+     * Sets the number of idle connections that idle timeouts won't close.
+     * The default is 0.
+     * 
+     * @param minIdle the minimum number of idle connections
+     */
+    
+    public void setMinIdle(int minIdle)
+      {
+        logger.debug("Setting minimum idle connections to {}", minIdle);
+        
+        poolHousekeeper.setMinIdle(minIdle);
+      }
+    
+    /**
+     * When thread affinity is on, getDatabase() first tries to give a thread 
+     * back the Database it last released, if that Database is still idle, and 
+     * only goes to the shared free pool when it isn't.  This suits servers that 
+     * run each request on one thread and make many DatabaseManager calls per 
+     * request, as the thread keeps reusing one connection and its statements.
+     * The default is false.
+     * 
+     * @param threadAffinity true to prefer the Database last released by the thread
+     */
+    
+    public void setThreadAffinity(boolean threadAffinity)
+      {
+        logger.debug("Setting thread affinity to {}", threadAffinity);
+        
+        this.threadAffinity = threadAffinity;
+      }
+    
+    /**
+     * Sets the number of databases that are reserved for interactive borrowers.  
+     * Batch borrowers (getDatabase(PRIORITY_BATCH)) can't take the last 
+     * reservedInteractive databases of the pool, and interactive waiters are 
+     * always served before batch waiters, so long running batch jobs can't 
+     * starve interactive work.  The reserve is limited to maxPoolSize - 1.  The 
+     * default is 0 (batch and interactive borrowers share the whole pool).
+     * 
+     * @param reservedInteractive the number of databases reserved for interactive borrowers
+     */
+    
+    public void setReservedInteractive(int reservedInteractive)
+      {
+        logger.debug("Setting databases reserved for interactive borrowers to {}", reservedInteractive);
+        
+        databasePool.setReservedPermits(reservedInteractive);
+      }
+    
+    /**
+     * Sets the number of prepared statements cached per pooled connection.  The 
+     * cache is least recently used, keyed by SQL, result set type and 
+     * concurrency, and generated keys mode, and it lives as long as the 
+     * connection, so statements survive close()/getDatabase() cycles (as long 
+     * as the manager pools connections, see ConnectionProvider.isPooling()).  
+     * It applies to databases created after the call.  A value of zero turns 
+     * the cache off.  The default is 32.
+     * 
+     * @param statementCacheSize the number of statements cached per connection
+     */
+    
+    public void setStatementCacheSize(int statementCacheSize)
+      {
+        logger.debug("Setting statement cache size to {}", statementCacheSize);
+        
+        this.statementCacheSize = statementCacheSize;
+      }
+    
+    /**
+     * Turns on adaptive pool sizing.  A background thread measures how long 
+     * borrowers wait, how long databases are held, and the resulting pool 
+     * utilization, and grows or shrinks the pool between minPoolSize and 
+     * maxPoolSize.  The pool starts from its current size.  When it shrinks, 
+     * surplus idle connections are closed by housekeeping (see setIdleTimeout()).
+     * 
+     * @param minPoolSize the smallest size the pool will shrink to
+     * @param maxPoolSize the largest size the pool will grow to
+     */
+    
+    public void setAdaptivePoolSizing(int minPoolSize, int maxPoolSize)
+      {
+        logger.debug("Setting adaptive pool sizing to {} - {}", minPoolSize, maxPoolSize);
+        
+        if (minPoolSize < 1 || maxPoolSize < minPoolSize)
+          throw new IllegalArgumentException("Invalid pool size bounds: " + minPoolSize + " - " + maxPoolSize);
+        
+        poolSizer.setBounds(minPoolSize, maxPoolSize);
+        poolSizer.start();
+      }
+    
+    /**
+     * Turns off adaptive pool sizing.  The pool keeps its current size.
+     */
+    
+    public void stopAdaptivePoolSizing()
+      {
+        logger.debug("Stopping adaptive pool sizing");
+        
+        poolSizer.stop();
+      }
+    
+    /**
+     * Sets how often, in milliseconds, adaptive pool sizing re-evaluates the 
+     * pool size.  The default is 10000.  Set it before setAdaptivePoolSizing().
+     * 
+     * @param adaptiveSizingInterval the interval in milliseconds
+     */
+    
+    public void setAdaptiveSizingInterval(long adaptiveSizingInterval)
+      {
+        logger.debug("Setting adaptive sizing interval to {}", adaptiveSizingInterval);
+        
+        poolSizer.setInterval(adaptiveSizingInterval);
+      }
+    
+    /**
+     * Sets the average borrow wait, in milliseconds, above which adaptive pool 
+     * sizing grows the pool.  The default is 50.
+     * 
+     * @param targetWaitTime the target wait time in milliseconds
+     */
+    
+    public void setTargetWaitTime(long targetWaitTime)
+      {
+        logger.debug("Setting target wait time to {}", targetWaitTime);
+        
+        poolSizer.setTargetWaitTime(targetWaitTime);
+      }
+    
+    /**
+     * Returns the most recent (up to 50) pool size changes made by adaptive 
+     * pool sizing, oldest first.
+     * 
+     * @return a list of PoolSizingDecision
+     */
+    
+    public List<PoolSizingDecision> getPoolSizingDecisions()
+      {
+        return poolSizer.getDecisions();
+      }
+    
+    /**
+     * Returns a snapshot of the pool counters (borrows, waits, timeouts, etc.).
+     * 
+     * @return an instance of PoolStatistics
+     */
+    
+    public PoolStatistics getPoolStatistics()
+      {
+        return new PoolStatistics(databasePool, statementCacheHitCount.get(), statementCacheMissCount.get());
+      }
+
     /**
      * Returns an instance of the defined database.
      *
@@ -588,66 +1280,70 @@ public final class DatabaseManager
      * @throws DatabaseException
      */
     
-    public synchronized Database getDatabase() throws DatabaseException
+    public Database getDatabase() throws DatabaseException
       {
-        try
+        return getDatabase(PRIORITY_INTERACTIVE);
+      }
+
+    /**
+     * Returns an instance of the defined database, borrowed with the given 
+     * priority (see setReservedInteractive()).
+     *
+     * @param priority PRIORITY_INTERACTIVE or PRIORITY_BATCH
+     * 
+     * @return an instance of Database
+     * @throws DatabaseException
+     */
+    
+    public Database getDatabase(int priority) throws DatabaseException
+      {
+        if (isClosed)
+          throw new DatabaseException("DatabaseManager is closed");
+
+        logger.debug("Retrieving database");
+
+        long deadline = getDeadline(), timeout = borrowTimeout;
+
+        if (deadline > 0)
           {
-            Database db = null;
+            timeout = Math.min(timeout, deadline - System.currentTimeMillis());
 
-            logger.debug("Retrieving database");
-            
-            if (databaseFreePool.size() > 0)
-              {
-                db = (Database)databaseFreePool.remove(0);
+            if (timeout <= 0)
+              throw new DatabaseException(DatabaseException.DEADLINE_EXCEEDED);
+          }
 
-                logger.debug("Database allocated from free pool");
-              }
-            else if (databaseFreePool.size() < maxPoolSize)
+        WeakReference<Database> lastReleased = threadAffinity ? lastReleasedDatabase.get() : null;
+        Database db = databasePool.borrow(timeout, lastReleased != null ? lastReleased.get() : null, priority == PRIORITY_BATCH);
+
+        try
+          {
+            if (db != null)
+              logger.debug("Database allocated from free pool");
+            else
               {
                 db = new Database(this);
                 db.setDatabaseName(databaseName);
 
-                if (connectionSourceType == CONNECTION_SOURCE_IS_DRIVER_MANAGER)
-                  {
-                    Class.forName(databaseDriver);
-                    
-                    Connection connection = null;
-
-                    if (databaseUsername != null)
-                      connection = DriverManager.getConnection(databaseUrl, databaseUsername, databasePassword);
-                    else
-                      connection = DriverManager.getConnection(databaseUrl);
-                    
-                    db.setConnection(connection);
-                    connectionsList.add(connection);
-                  }
+                if (statementCacheSize > 0)
+                  db.statementCache = new StatementCache(db, statementCacheSize, statementCacheHitCount, statementCacheMissCount);
               }
-            else throw new DatabaseException("Database pool is empty");
 
-            if (connectionSourceType != CONNECTION_SOURCE_IS_DRIVER_MANAGER)
+            if (db.getConnection() == null)
               {
-                try
-                  {
-                    if (connectionSourceType == CONNECTION_SOURCE_IS_JNDI)
-                      {
-                        if (databaseUsername != null)
-                          db.setConnection(((DataSource)new InitialContext().lookup("java:comp/env/" + databaseUrl)).getConnection(databaseUsername,databasePassword));
-                        else
-                          db.setConnection(((DataSource)new InitialContext().lookup("java:comp/env/" + databaseUrl)).getConnection());
-                      }
-                    else if (connectionSourceType == CONNECTION_SOURCE_IS_DATA_SOURCE)
-                      db.setConnection(dataSource.getConnection());
-                    else throw new DatabaseException("connectionSourceType = " + connectionSourceType);
-                  }
-                catch (NamingException ex)
-                  {
-                    throw new DatabaseException("Error for database = " + databaseUrl, ex);
-                  }
+                db.setConnection(connectionProvider.getConnection());
+                db.connectionCreated = System.currentTimeMillis();
+
+                if (connectionProvider.isPooling())
+                  poolHousekeeper.start();
               }
 
-            logger.debug("Databases allocated = {}", ++databasesAllocated);
+            logger.debug("Databases allocated = {}", databasePool.getActiveCount());
 
             db.initDatabase();
+
+            if (metaData != null)
+              db.setMetaData(metaData);
+
             db.setCatalogPattern(catalogPattern);
             db.setSchemaPattern(schemaPattern);
             db.setFetchSize(fetchSize);
@@ -655,28 +1351,63 @@ public final class DatabaseManager
             db.setResultSetType(resultSetType);
             db.setResultSetConcurrency(resultSetConcurrency);
             db.setAutomaticTransactions(automaticTransactions);
+            db.setBindNullValues(bindNullValues);
+            db.setOpenCursorLimit(maxOpenCursors, openCursorPolicy);
+
+            if (deadline > 0)
+              db.setDeadline(deadline);
+
+            db.poolBorrowed = System.nanoTime();
 
             return db;
           }
         catch (Exception e)
           {
+            databasePool.release(db);
+
             throw new DatabaseException(e);
           }
       }
 
+    /**
+     * Pins the meta data for this manager's databases, so they don't resolve 
+     * it through JDBC DatabaseMetaData again.  All connections of a manager 
+     * come from the same connection provider, and therefore the same url.
+     */
+
+    void pinMetaData(MetaData metaData)
+      {
+        this.metaData = metaData;
+      }
+
     void releaseDatabase(Database db)
       {
-        if (connectionSourceType != CONNECTION_SOURCE_IS_DRIVER_MANAGER)
-          try { db.getConnection().close(); } 
-          catch (Exception e) 
-            {
-              logger.error(e.toString(), e);
-            }
+        if (!connectionProvider.isPooling() || isClosed)
+          {
+            try { db.getConnection().close(); } 
+            catch (Exception e) 
+              {
+                logger.error(e.toString(), e);
+              }
 
-        databaseFreePool.add(db);
+            db.setConnection(null);
+          }
+
+        db.connectionReleased = System.currentTimeMillis();
+
+        if (db.poolBorrowed != 0)
+          {
+            databasePool.recordHold(System.nanoTime() - db.poolBorrowed);
+            db.poolBorrowed = 0;
+          }
+
+        if (threadAffinity && !isClosed)
+          lastReleasedDatabase.set(new WeakReference<Database>(db));
 
-        logger.debug("Database added to free pool; size is now = {}, max size = {}", databaseFreePool.size(), maxPoolSize);
-        logger.debug("Databases allocated = {}", --databasesAllocated);
+        databasePool.release(isClosed ? null : db);
+
+        logger.debug("Database added to free pool; idle = {}, max size = {}", databasePool.getIdleCount(), databasePool.getMaxPoolSize());
+        logger.debug("Databases allocated = {}", databasePool.getActiveCount());
       }
     
     /**
@@ -781,7 +1512,7 @@ public final class DatabaseManager
         
         try
           {
-            Result<T> result = db.queryObject(object, externalClauses, externalClausesParameters);
+            Result<T> result = db.queryObjectForLoad(object, externalClauses, externalClausesParameters);
             
             if (result.hasNext())
               return result.next(object);
@@ -828,7 +1559,7 @@ public final class DatabaseManager
 
         try
           {
-            Result<T> result = db.queryObject(cs, externalClauses, externalClausesParameters);
+            Result<T> result = db.queryObjectForLoad(cs, externalClauses, externalClausesParameters);
 
             if (result.hasNext())
               return result.next();
@@ -943,7 +1674,7 @@ public final class DatabaseManager
 
         try
           {
-            return db.queryObject(object, externalClauses, externalClausesParameters).loadObjects(collection, (Class<T>)object.getClass());
+            return db.queryObjectForLoad(object, externalClauses, externalClausesParameters).loadObjects(collection, (Class<T>)object.getClass());
           }
         finally
           {
@@ -987,7 +1718,7 @@ public final class DatabaseManager
 
         try
           {
-            return db.queryObject(cs, externalClauses, externalClausesParameters).loadObjects(collection, cs);
+            return db.queryObjectForLoad(cs, externalClauses, externalClausesParameters).loadObjects(collection, cs);
           }
         finally
           {
@@ -1568,6 +2299,102 @@ public final class DatabaseManager
         return persistentClassManager;
       }
 
+    /**
+     * A snapshot of the connection pool counters.  Wait time is the total time, 
+     * in milliseconds, that borrowers have spent waiting for a database.  The 
+     * statement cache counters are totals over all pooled connections.
+     */
+
+    public static class PoolStatistics
+      {
+        private int maxPoolSize, reservedInteractive, activeCount, idleCount, waitingCount, batchWaitingCount;
+        private long borrowCount, waitCount, timeoutCount, waitTime, affinityHitCount, statementCacheHitCount, statementCacheMissCount;
+
+        PoolStatistics(DatabasePool pool, long statementCacheHitCount, long statementCacheMissCount)
+          {
+            this.maxPoolSize = pool.getMaxPoolSize();
+            this.reservedInteractive = pool.getReservedPermits();
+            this.activeCount = pool.getActiveCount();
+            this.idleCount = pool.getIdleCount();
+            this.waitingCount = pool.getWaitingCount();
+            this.batchWaitingCount = pool.getBatchWaitingCount();
+            this.borrowCount = pool.getBorrowCount();
+            this.waitCount = pool.getWaitCount();
+            this.timeoutCount = pool.getTimeoutCount();
+            this.waitTime = pool.getWaitTime();
+            this.affinityHitCount = pool.getAffinityHitCount();
+            this.statementCacheHitCount = statementCacheHitCount;
+            this.statementCacheMissCount = statementCacheMissCount;
+          }
+
+        public int getMaxPoolSize() { return maxPoolSize; }
+        public int getReservedInteractive() { return reservedInteractive; }
+        public int getActiveCount() { return activeCount; }
+        public int getIdleCount() { return idleCount; }
+        public int getWaitingCount() { return waitingCount; }
+        public int getBatchWaitingCount() { return batchWaitingCount; }
+        public long getBorrowCount() { return borrowCount; }
+        public long getWaitCount() { return waitCount; }
+        public long getTimeoutCount() { return timeoutCount; }
+        public long getWaitTime() { return waitTime; }
+        public long getAffinityHitCount() { return affinityHitCount; }
+        public long getStatementCacheHitCount() { return statementCacheHitCount; }
+        public long getStatementCacheMissCount() { return statementCacheMissCount; }
+
+        public String toString()
+          {
+            return "maxPoolSize = " + maxPoolSize + ", reservedInteractive = " + reservedInteractive + ", active = " + activeCount 
+                   + ", idle = " + idleCount + ", waiting = " + waitingCount + ", batchWaiting = " + batchWaitingCount + ", borrows = " + borrowCount + ", waits = " + waitCount 
+                   + ", timeouts = " + timeoutCount + ", waitTime = " + waitTime + ", affinityHits = " + affinityHitCount
+                   + ", statementCacheHits = " + statementCacheHitCount + ", statementCacheMisses = " + statementCacheMissCount;
+          }
+      }
+
+    /**
+     * A pool size change made by adaptive pool sizing, with the measurements 
+     * it was based on.  Average wait is in milliseconds, and utilization is 
+     * the fraction of the pool's time that databases were held by borrowers.
+     */
+
+    public static class PoolSizingDecision
+      {
+        private long time, borrowCount, waitCount, timeoutCount, averageWait;
+        private int oldSize, newSize;
+        private String reason;
+        private double utilization;
+
+        PoolSizingDecision(long time, int oldSize, int newSize, String reason, long borrowCount, long waitCount, 
+                           long timeoutCount, long averageWait, double utilization)
+          {
+            this.time = time;
+            this.oldSize = oldSize;
+            this.newSize = newSize;
+            this.reason = reason;
+            this.borrowCount = borrowCount;
+            this.waitCount = waitCount;
+            this.timeoutCount = timeoutCount;
+            this.averageWait = averageWait;
+            this.utilization = utilization;
+          }
+
+        public long getTime() { return time; }
+        public int getOldSize() { return oldSize; }
+        public int getNewSize() { return newSize; }
+        public String getReason() { return reason; }
+        public long getBorrowCount() { return borrowCount; }
+        public long getWaitCount() { return waitCount; }
+        public long getTimeoutCount() { return timeoutCount; }
+        public long getAverageWait() { return averageWait; }
+        public double getUtilization() { return utilization; }
+
+        public String toString()
+          {
+            return oldSize + " -> " + newSize + " (" + reason + "), borrows = " + borrowCount + ", waits = " + waitCount 
+                   + ", timeouts = " + timeoutCount + ", averageWait = " + averageWait + ", utilization = " 
+                   + Math.round(utilization * 100) + "%";
+          }
+      }
+
     /**
      * This class is used to associate information regarding persistence preferences
      * for a Class whose objects will be involved with EJP persistence methods.  This 
@@ -1578,9 +2405,16 @@ public final class DatabaseManager
 
     public static class PersistentClassManager
       {
+        static final int MAX_CACHED_MAPPINGS = 2000;
+
         Map<Class, ClassInformation> classMap = null;
         private Boolean defaultReloadAfterSave = true, defaultIgnoreAssociations = false, defaultLazyLoading = true;
 
+        // what's been worked out from the mappings, keyed with the mapping version (see getMappingVersion())
+        private ConcurrentHashMap<SqlShape, RowPlan> rowPlans = new ConcurrentHashMap<SqlShape, RowPlan>();
+        private ConcurrentHashMap<SqlShape, Method[]> matchingMethods = new ConcurrentHashMap<SqlShape, Method[]>();
+        private volatile int mappingVersion;
+
         void init() 
           {
             if (classMap == null)
@@ -1599,6 +2433,7 @@ public final class DatabaseManager
             logger.debug("tableMapping = {}", tableMapping);
 
             get(cs).tableMapping = tableMapping;
+            ejp.PersistentClassManager.mappingChanged();
           }
 
         /**
@@ -1613,6 +2448,7 @@ public final class DatabaseManager
             logger.debug("columnMapping = {}", columnMapping);
 
             get(cs).columnMapping = columnMapping;
+            ejp.PersistentClassManager.mappingChanged();
           }
 
         /**
@@ -1765,6 +2601,69 @@ public final class DatabaseManager
             logger.debug("cs = {}", cs);
 
             classMap.remove(cs);
+            ejp.PersistentClassManager.mappingChanged();
+          }
+
+        /**
+         * Returns the current mapping version (see 
+         * ejp.PersistentClassManager.mappingChanged()), which goes in the keys 
+         * of the row plans and matched methods so none made with older 
+         * mappings are used.  The first call after a change also empties both 
+         * caches.
+         */
+
+        int getMappingVersion()
+          {
+            int version = ejp.PersistentClassManager.getMappingVersion();
+
+            if (version != mappingVersion)
+              {
+                rowPlans.clear();
+                matchingMethods.clear();
+                mappingVersion = version;
+              }
+
+            return version;
+          }
+
+        /**
+         * Returns the row mapping plan cached for a key (see 
+         * Result.getRowPlan()), or null.
+         */
+
+        RowPlan getRowPlan(SqlShape key) { return rowPlans.get(key); }
+
+        /**
+         * Caches a row mapping plan.  Like the SQL cache, it's emptied if it 
+         * grows past MAX_CACHED_MAPPINGS plans.
+         */
+
+        void putRowPlan(SqlShape key, RowPlan plan)
+          {
+            if (rowPlans.size() >= MAX_CACHED_MAPPINGS)
+              rowPlans.clear();
+
+            rowPlans.put(key, plan);
+          }
+
+        /**
+         * Returns the get or set method cached for a key (see 
+         * ORMSupport.getMatchingMethod()), an empty array for none, or null.
+         */
+
+        Method[] getMatchingMethod(SqlShape key) { return matchingMethods.get(key); }
+
+        /**
+         * Caches a get or set method, emptying the cache if it grows past 
+         * MAX_CACHED_MAPPINGS methods.
+         */
+
+        void putMatchingMethod(SqlShape key, Method[] match)
+          {
+            if (matchingMethods.size() >= MAX_CACHED_MAPPINGS)
+              matchingMethods.clear();
+
+            matchingMethods.put(key, match);
           }
 
         String getColumnMapping(Class cs, String propertyName)
@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license 
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not, 
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * The pool engine behind DatabaseManager.getDatabase() and releaseDatabase().
+ * Idle databases are kept in a lock-free queue, and the number of databases
+ * handed out is bounded by a permit count that is taken with a compare-and-set
+ * while nobody is waiting.  When the pool is exhausted, borrowers wait in FIFO
+ * order for up to the borrow timeout.
+ * 
+ * <p>A database is claimed by flipping its poolIdle flag, so a borrower can 
+ * also claim a specific database (the one its thread last released) without 
+ * going through the queue.  Queue entries for databases claimed that way are 
+ * simply dropped when polled, and poolQueued keeps a database from being 
+ * queued more than once.</p>
+ * 
+ * <p>Borrowers are either interactive or batch.  Interactive waiters are always 
+ * served before batch waiters, and batch borrowers can't take the last 
+ * reservedPermits permits, so that many databases are always left for 
+ * interactive work.</p>
+ */
+
+final class DatabasePool
+  {
+    private static Logger logger = LoggerFactory.getLogger(DatabasePool.class);
+
+    private ConcurrentLinkedQueue<Database> idleDatabases = new ConcurrentLinkedQueue<Database>();
+    private AtomicInteger availablePermits, idleCount = new AtomicInteger(), waitingCount = new AtomicInteger(),
+                          interactiveWaitingCount = new AtomicInteger();
+    private AtomicLong borrowCount = new AtomicLong(), waitCount = new AtomicLong(),
+                       timeoutCount = new AtomicLong(), waitTime = new AtomicLong(), affinityHitCount = new AtomicLong(),
+                       holdTime = new AtomicLong();
+    private ReentrantLock waitLock = new ReentrantLock();
+    private LinkedList<Waiter> waiters = new LinkedList<Waiter>(), batchWaiters = new LinkedList<Waiter>();
+    private volatile int maxPoolSize, reservedPermits;
+
+    DatabasePool(int maxPoolSize)
+      {
+        this.maxPoolSize = maxPoolSize;
+        this.availablePermits = new AtomicInteger(maxPoolSize);
+      }
+
+    /**
+     * Takes a permit and returns the preferred database if it's idle, or 
+     * another idle database, or null if the caller needs to create a new one.  
+     * Either way the caller owns a permit and must give it back with release().
+     */
+
+    Database borrow(long timeout, Database preferred, boolean batch) throws DatabaseException
+      {
+        borrowCount.incrementAndGet();
+
+        if (batch ? waitingCount.get() > 0 || !tryAcquirePermit(reservedPermits)
+                  : interactiveWaitingCount.get() > 0 || !tryAcquirePermit(0))
+          acquirePermit(timeout, batch);
+
+        if (preferred != null && claim(preferred))
+          {
+            affinityHitCount.incrementAndGet();
+
+            return preferred;
+          }
+
+        return pollIdle();
+      }
+
+    /**
+     * Returns a permit, and the database (if not null) to the idle queue.
+     */
+
+    void release(Database db)
+      {
+        if (db != null)
+          {
+            db.poolIdle.set(true);
+            idleCount.incrementAndGet();
+
+            if (db.poolQueued.compareAndSet(false, true))
+              idleDatabases.offer(db);
+          }
+
+        availablePermits.incrementAndGet();
+
+        if (waitingCount.get() > 0)
+          {
+            waitLock.lock();
+
+            try
+              {
+                signalNextWaiter();
+              }
+            finally
+              {
+                waitLock.unlock();
+              }
+          }
+      }
+
+    /**
+     * Takes a permit and an idle database if both are available right now and 
+     * nobody is waiting, otherwise returns null (used by housekeeping).
+     */
+
+    Database borrowIdle()
+      {
+        if (waitingCount.get() > 0 || !tryAcquirePermit(0))
+          return null;
+
+        Database db = pollIdle();
+
+        if (db == null)
+          release(null);
+
+        return db;
+      }
+
+    /**
+     * Removes an idle database without taking a permit (used when closing).
+     */
+
+    Database pollIdle()
+      {
+        for (Database db = idleDatabases.poll(); db != null; db = idleDatabases.poll())
+          {
+            db.poolQueued.set(false);
+
+            if (claim(db))
+              return db;
+          }
+
+        return null;
+      }
+
+    private boolean claim(Database db)
+      {
+        if (db.poolIdle.compareAndSet(true, false))
+          {
+            idleCount.decrementAndGet();
+
+            return true;
+          }
+
+        return false;
+      }
+
+    /**
+     * Sets the number of permits batch borrowers can't take.
+     */
+
+    void setReservedPermits(int reservedPermits)
+      {
+        this.reservedPermits = Math.max(0, Math.min(reservedPermits, maxPoolSize - 1));
+      }
+
+    int getReservedPermits() { return reservedPermits; }
+
+    /**
+     * Changes the number of permits.  Shrinking takes effect as databases are 
+     * released (available permits can go negative until then), and growing 
+     * wakes up waiters right away.
+     */
+
+    synchronized void setMaxPoolSize(int newMaxPoolSize)
+      {
+        int delta = newMaxPoolSize - maxPoolSize;
+
+        maxPoolSize = newMaxPoolSize;
+        setReservedPermits(reservedPermits);
+        availablePermits.addAndGet(delta);
+
+        if (delta > 0 && waitingCount.get() > 0)
+          {
+            waitLock.lock();
+
+            try
+              {
+                signalNextWaiter();
+              }
+            finally
+              {
+                waitLock.unlock();
+              }
+          }
+      }
+
+    /**
+     * Adds the time a database was held by a borrower.
+     */
+
+    void recordHold(long nanos) { holdTime.addAndGet(nanos); }
+
+    int getMaxPoolSize() { return maxPoolSize; }
+
+    int getActiveCount() { return maxPoolSize - availablePermits.get(); }
+
+    int getIdleCount() { return idleCount.get(); }
+
+    int getWaitingCount() { return waitingCount.get(); }
+
+    int getBatchWaitingCount() { return waitingCount.get() - interactiveWaitingCount.get(); }
+
+    long getBorrowCount() { return borrowCount.get(); }
+
+    long getWaitCount() { return waitCount.get(); }
+
+    long getTimeoutCount() { return timeoutCount.get(); }
+
+    long getWaitTime() { return TimeUnit.NANOSECONDS.toMillis(waitTime.get()); }
+
+    long getAffinityHitCount() { return affinityHitCount.get(); }
+
+    long getWaitTimeNanos() { return waitTime.get(); }
+
+    long getHoldTimeNanos() { return holdTime.get(); }
+
+    private boolean tryAcquirePermit(int floor)
+      {
+        for (;;)
+          {
+            int available = availablePermits.get();
+
+            if (available <= floor)
+              return false;
+
+            if (availablePermits.compareAndSet(available, available - 1))
+              return true;
+          }
+      }
+
+    private void acquirePermit(long timeout, boolean batch) throws DatabaseException
+      {
+        long start = System.nanoTime(), nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        Waiter waiter = new Waiter(waitLock.newCondition());
+        LinkedList<Waiter> queue = batch ? batchWaiters : waiters;
+
+        waitCount.incrementAndGet();
+        waitLock.lock();
+
+        try
+          {
+            queue.addLast(waiter);
+            waitingCount.incrementAndGet();
+
+            if (!batch)
+              interactiveWaitingCount.incrementAndGet();
+
+            try
+              {
+                for (;;)
+                  {
+                    if (batch ? waiters.isEmpty() && batchWaiters.getFirst() == waiter && tryAcquirePermit(reservedPermits)
+                              : waiters.getFirst() == waiter && tryAcquirePermit(0))
+                      return;
+
+                    if (nanos <= 0)
+                      {
+                        timeoutCount.incrementAndGet();
+
+                        throw new DatabaseException("Database pool is empty; no database was released within " + timeout + " ms");
+                      }
+
+                    nanos = waiter.condition.awaitNanos(nanos);
+                  }
+              }
+            finally
+              {
+                queue.remove(waiter);
+                waitingCount.decrementAndGet();
+
+                if (!batch)
+                  interactiveWaitingCount.decrementAndGet();
+
+                waitTime.addAndGet(System.nanoTime() - start);
+                signalNextWaiter();
+              }
+          }
+        catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+
+            throw new DatabaseException("Interrupted while waiting for a database", e);
+          }
+        finally
+          {
+            waitLock.unlock();
+          }
+      }
+
+    /* must hold waitLock */
+    private void signalNextWaiter()
+      {
+        int available = availablePermits.get();
+
+        if (!waiters.isEmpty())
+          {
+            if (available > 0)
+              {
+                logger.debug("Signaling next waiter; waiting = {}", waiters.size());
+
+                waiters.getFirst().condition.signal();
+              }
+          }
+        else if (!batchWaiters.isEmpty() && available > reservedPermits)
+          {
+            logger.debug("Signaling next batch waiter; waiting = {}", batchWaiters.size());
+
+            batchWaiters.getFirst().condition.signal();
+          }
+      }
+
+    static class Waiter
+      {
+        Condition condition;
+
+        Waiter(Condition condition)
+          {
+            this.condition = condition;
+          }
+      }
+  }
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * A single daemon thread shared by all databases, that cancels a database's
+ * in-flight statements when its deadline passes.  The query timeout handles
+ * drivers that honor it, the watchdog handles the rest, including rows still
+ * being fetched by an open Result.
+ */
+
+final class DeadlineWatchdog
+  {
+    private static Logger logger = LoggerFactory.getLogger(DeadlineWatchdog.class);
+    private static final int PURGE_INTERVAL = 100;
+    private static Timer timer;
+    private static AtomicInteger cancelledCount = new AtomicInteger();
+
+    private DeadlineWatchdog() { }
+
+    private static synchronized Timer getTimer()
+      {
+        if (timer == null)
+          timer = new Timer("ejp-deadline-watchdog", true);
+
+        return timer;
+      }
+
+    static TimerTask watch(final Database db, long deadline)
+      {
+        TimerTask task = new TimerTask()
+          {
+            public void run()
+              {
+                logger.warn("Deadline passed, cancelling statements for database {}", db.getDatabaseName());
+
+                db.cancel();
+              }
+          };
+
+        getTimer().schedule(task, new Date(deadline));
+
+        return task;
+      }
+
+    static void unwatch(TimerTask task)
+      {
+        // cancelled tasks stay in the timer's queue until they come due, unless they're purged
+        if (task.cancel() && cancelledCount.incrementAndGet() % PURGE_INTERVAL == 0)
+          getTimer().purge();
+      }
+  }
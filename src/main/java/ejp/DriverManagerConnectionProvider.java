@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license 
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not, 
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import ejp.interfaces.ConnectionProvider;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * A ConnectionProvider that opens connections with java.sql.DriverManager.  
+ * Connections are pooled by the DatabaseManager.
+ */
+
+public class DriverManagerConnectionProvider implements ConnectionProvider
+  {
+    private static Logger logger = LoggerFactory.getLogger(DriverManagerConnectionProvider.class);
+    
+    private String driver, url, username, password;
+    private volatile boolean driverLoaded;
+
+    /**
+     * Create a DriverManagerConnectionProvider.
+     *
+     * @param driver the database driver class name
+     * @param url the driver oriented database url
+     */
+    
+    public DriverManagerConnectionProvider(String driver, String url)
+      {
+        this(driver, url, null, null);
+      }
+
+    /**
+     * Create a DriverManagerConnectionProvider.
+     *
+     * @param driver the database driver class name
+     * @param url the driver oriented database url
+     * @param username the username to use for signon
+     * @param password the password to use for signon
+     */
+    
+    public DriverManagerConnectionProvider(String driver, String url, String username, String password)
+      {
+        this.driver = driver;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+      }
+
+    public Connection getConnection() throws SQLException
+      {
+        if (!driverLoaded)
+          try
+            {
+              Class.forName(driver);
+              driverLoaded = true;
+            }
+          catch (ClassNotFoundException e)
+            {
+              throw new SQLException("Driver not found: " + driver, e);
+            }
+
+        logger.debug("Opening connection to {}", url);
+
+        if (username != null)
+          return DriverManager.getConnection(url, username, password);
+        
+        return DriverManager.getConnection(url);
+      }
+
+    public boolean isPooling() { return true; }
+
+    public String toString()
+      {
+        return "driver = " + driver + ", url = " + url + ", username = " + username;
+      }
+  }
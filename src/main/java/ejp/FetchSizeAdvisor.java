@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Picks a fetch size for each query shape (its SQL text) from what earlier
+ * executions of the shape returned.  Each closed Result reports the rows it
+ * read, and the first one also reports an estimated row width.  The advised
+ * fetch size covers the expected rows plus one, so a point lookup finishes in
+ * a single round trip with a small buffer, and is capped so that one fetch
+ * stays within the fetch buffer size, so wide scans don't buffer too much.
+ * The result is kept between the configured bounds.
+ */
+
+final class FetchSizeAdvisor
+  {
+    private static Logger logger = LoggerFactory.getLogger(FetchSizeAdvisor.class);
+    private static final int MAX_SHAPES = 2000, MAX_COLUMN_WIDTH = 1024, DEFAULT_COLUMN_WIDTH = 32;
+    private static final double WEIGHT = 0.3;
+
+    private volatile boolean enabled;
+    private volatile int minFetchSize = 1, maxFetchSize = 1000;
+    private volatile long fetchBufferSize = 256 * 1024;
+    private ConcurrentHashMap<String, Shape> shapes = new ConcurrentHashMap<String, Shape>();
+
+    static class Shape
+      {
+        volatile double rows;
+        volatile int rowWidth;
+      }
+
+    boolean isEnabled() { return enabled; }
+
+    void setEnabled(boolean enabled)
+      {
+        this.enabled = enabled;
+
+        if (!enabled)
+          shapes.clear();
+      }
+
+    void setBounds(int minFetchSize, int maxFetchSize)
+      {
+        this.minFetchSize = minFetchSize;
+        this.maxFetchSize = maxFetchSize;
+      }
+
+    void setFetchBufferSize(long fetchBufferSize) { this.fetchBufferSize = fetchBufferSize; }
+
+    /**
+     * Returns the fetch size for the next execution of sql, or null if the
+     * shape hasn't been seen yet.
+     */
+
+    Integer getFetchSize(String sql)
+      {
+        Shape shape = enabled ? shapes.get(sql) : null;
+
+        if (shape == null)
+          return null;
+
+        long rows = (long)Math.ceil(shape.rows) + 1;
+
+        if (shape.rowWidth > 0)
+          rows = Math.min(rows, Math.max(1, fetchBufferSize / shape.rowWidth));
+
+        return (int)Math.max(minFetchSize, Math.min(maxFetchSize, rows));
+      }
+
+    boolean needsRowWidth(String sql)
+      {
+        return enabled && !shapes.containsKey(sql);
+      }
+
+    void record(String sql, int rows, int rowWidth)
+      {
+        if (!enabled)
+          return;
+
+        Shape shape = shapes.get(sql);
+
+        if (shape == null)
+          {
+            if (shapes.size() >= MAX_SHAPES)
+              {
+                logger.debug("Fetch size shapes reached {}, clearing", MAX_SHAPES);
+
+                shapes.clear();
+              }
+
+            shape = new Shape();
+            shape.rows = rows;
+            shape.rowWidth = rowWidth;
+
+            Shape existing = shapes.putIfAbsent(sql, shape);
+
+            if (existing == null)
+              return;
+
+            shape = existing;
+          }
+
+        // an exponentially weighted average, so the shape follows changes in the data without jumping on one outlier
+        shape.rows = shape.rows + WEIGHT * (rows - shape.rows);
+
+        if (shape.rowWidth == 0)
+          shape.rowWidth = rowWidth;
+      }
+
+    /**
+     * Estimates the width of a row in bytes from the column display sizes,
+     * with large (LOB) columns capped.
+     */
+
+    static int estimateRowWidth(ResultSet resultSet)
+      {
+        try
+          {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            int width = 0;
+
+            for (int i = 1; i <= metaData.getColumnCount(); i++)
+              {
+                int size = metaData.getColumnDisplaySize(i);
+
+                width += size > 0 ? Math.min(size, MAX_COLUMN_WIDTH) : DEFAULT_COLUMN_WIDTH;
+              }
+
+            return width;
+          }
+        catch (Exception e)
+          {
+            logger.debug(e.toString(), e);
+
+            return 0;
+          }
+      }
+  }
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license 
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not, 
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.sql.SQLException;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * A ConnectionProvider backed by a DataSource found with JNDI at 
+ * "java:comp/env/" + jndiUri.  The lookup is done once, on first use, and the 
+ * DataSource is cached after that.
+ */
+
+public class JndiConnectionProvider extends DataSourceConnectionProvider
+  {
+    private static Logger logger = LoggerFactory.getLogger(JndiConnectionProvider.class);
+    
+    private String jndiUri;
+    private volatile DataSource dataSource;
+
+    /**
+     * Create a JndiConnectionProvider.
+     *
+     * @param jndiUri the JNDI URI
+     */
+    
+    public JndiConnectionProvider(String jndiUri)
+      {
+        this(jndiUri, null, null);
+      }
+
+    /**
+     * Create a JndiConnectionProvider.
+     *
+     * @param jndiUri the JNDI URI
+     * @param username the username to use for signon
+     * @param password the password to use for signon
+     */
+    
+    public JndiConnectionProvider(String jndiUri, String username, String password)
+      {
+        super(null, username, password);
+        
+        this.jndiUri = jndiUri;
+      }
+
+    protected DataSource getDataSource() throws SQLException
+      {
+        if (dataSource == null)
+          synchronized (this)
+            {
+              if (dataSource == null)
+                try
+                  {
+                    logger.debug("Looking up DataSource java:comp/env/{}", jndiUri);
+
+                    dataSource = (DataSource)new InitialContext().lookup("java:comp/env/" + jndiUri);
+                  }
+                catch (NamingException e)
+                  {
+                    throw new SQLException("Error for database = " + jndiUri, e);
+                  }
+            }
+
+        return dataSource;
+      }
+
+    public String toString()
+      {
+        return "jndiUri = " + jndiUri;
+      }
+  }
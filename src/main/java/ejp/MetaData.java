@@ -44,16 +44,29 @@ public final class MetaData
     public static final int STORES_UPPERCASE = 1;
     public static final int STORES_LOWERCASE = 2;
     public static final int STORES_MIXEDCASE = 3;
+
+    public static final int DIALECT_UNKNOWN = 0;
+    public static final int DIALECT_ORACLE = 1;
+    public static final int DIALECT_MYSQL = 2;
+    public static final int DIALECT_DERBY = 3;
+    public static final int DIALECT_DB2 = 4;
+    public static final int DIALECT_HSQLDB = 5;
+    public static final int DIALECT_H2 = 6;
+    public static final int DIALECT_POSTGRESQL = 7;
     
     private static Logger logger = LoggerFactory.getLogger(MetaData.class);
     private static ConcurrentHashMap metaDataMap = new ConcurrentHashMap();
     
     private String tableTypes[] = new String[] { "TABLE", "VIEW" }, identifierQuoteString = "", 
                    searchStringEscape = "", catalogSeparator = "", databaseUrl;
+    private static final int MAX_CACHED_SQL = 2000;
+    
     private ConcurrentHashMap tables = new ConcurrentHashMap(), tableCache = new ConcurrentHashMap();
+    private ConcurrentHashMap<SqlShape, String> sqlCache = new ConcurrentHashMap<SqlShape, String>();
     private Set stripTablePrefixes, stripTableSuffixes, stripColumnPrefixes, stripColumnSuffixes;
+    private volatile Boolean combinesQueries;
     private boolean supportsGeneratedKeys, supportsSavepoints, supportsBatchUpdates, strictClassTableMatching = false, strictMethodColumnMatching = true;
-    private int storesCase = 0;
+    private int storesCase = 0, dialect = DIALECT_UNKNOWN;
 
     static MetaData getMetaData(Connection connection) throws SQLException, DatabaseException
       {
@@ -127,6 +140,19 @@ public final class MetaData
             logger.debug("supports savepoints = {}", metaData.supportsSavepoints);
             
             metaData.supportsBatchUpdates = dbMetaData.supportsBatchUpdates();
+
+            try
+              {
+                // a query group's results are read side by side, so the results of one execute() have to stay open together
+                if (!dbMetaData.supportsMultipleResultSets() || !dbMetaData.supportsMultipleOpenResults())
+                  metaData.combinesQueries = Boolean.FALSE;
+              }
+            catch (Throwable e) // JDBC 2 drivers throw AbstractMethodError
+              {
+                metaData.combinesQueries = Boolean.FALSE;
+              }
+
+            logger.debug("may combine queries = {}", metaData.combinesQueries == null);
             
             if (dbMetaData.storesLowerCaseIdentifiers() || dbMetaData.storesLowerCaseQuotedIdentifiers())
               metaData.storesCase = STORES_LOWERCASE;
@@ -147,6 +173,7 @@ public final class MetaData
             logger.debug("supports generated keys = {}", (metaData.supportsGeneratedKeys = dbMetaData.supportsGetGeneratedKeys()));
             logger.debug("search string escape = {}", (metaData.searchStringEscape = dbMetaData.getSearchStringEscape()));
             logger.debug("database url = {}", (metaData.databaseUrl = databaseUrl));
+            logger.debug("dialect = {}", (metaData.dialect = parseDialect(databaseUrl)));
 
             if (metaDataMap.putIfAbsent(databaseUrl, metaData) != null)
               metaData = (MetaData)metaDataMap.get(databaseUrl);
@@ -155,6 +182,50 @@ public final class MetaData
         return metaData;
       }
 
+    /**
+     * Returns the SQL text cached for the statement shape, or null.
+     */
+    
+    String getSql(SqlShape shape)
+      {
+        return sqlCache.get(shape);
+      }
+
+    /**
+     * Caches the SQL text for the statement shape.  The cache is simply 
+     * emptied if it grows past MAX_CACHED_SQL shapes.
+     */
+    
+    void putSql(SqlShape shape, String sql)
+      {
+        if (sqlCache.size() >= MAX_CACHED_SQL)
+          sqlCache.clear();
+
+        sqlCache.put(shape, sql);
+      }
+
+    static int parseDialect(String databaseUrl)
+      {
+        String url = databaseUrl != null ? databaseUrl.toLowerCase() : "";
+
+        if (url.startsWith("jdbc:oracle"))
+          return DIALECT_ORACLE;
+        else if (url.startsWith("jdbc:mysql"))
+          return DIALECT_MYSQL;
+        else if (url.startsWith("jdbc:derby"))
+          return DIALECT_DERBY;
+        else if (url.startsWith("jdbc:db2"))
+          return DIALECT_DB2;
+        else if (url.startsWith("jdbc:hsqldb"))
+          return DIALECT_HSQLDB;
+        else if (url.startsWith("jdbc:h2"))
+          return DIALECT_H2;
+        else if (url.startsWith("jdbc:postgre"))
+          return DIALECT_POSTGRESQL;
+
+        return DIALECT_UNKNOWN;
+      }
+
     /**
      * Returns the identifier quote string ("'", etc).
      * 
@@ -183,6 +254,14 @@ public final class MetaData
      */
     public int getStoresCase() { return storesCase; }
 
+    /**
+     * Returns the database dialect, parsed from the JDBC URL when the meta 
+     * data was loaded.
+     * 
+     * @return one of the DIALECT_ constants
+     */
+    public int getDialect() { return dialect; }
+
     /**
      * Returns true if the JDBC driver supports generated keys via parameters 
      * to one of the various update methods.
@@ -203,6 +282,17 @@ public final class MetaData
      */
     public boolean supportsBatchUpdates() { return supportsBatchUpdates; }
 
+    /**
+     * Returns Boolean.TRUE if the database has run a query group as one 
+     * combined statement, Boolean.FALSE if it can't, and null if it hasn't 
+     * been tried yet.
+     * 
+     * @return whether query groups are combined into one statement
+     */
+    public Boolean combinesQueries() { return combinesQueries; }
+
+    void setCombinesQueries(Boolean combinesQueries) { this.combinesQueries = combinesQueries; }
+
     /**
      * Set the table types to search for (default is "TABLE" and "VIEW").
      * @param tableTypes an array of table types (see JDBC javadoc)
@@ -220,7 +310,7 @@ public final class MetaData
      * 
      * @param trueFalse true to use strict method/column matching
      */
-    public void setStrictMethodColumnMatching(boolean trueFalse) { strictMethodColumnMatching = trueFalse; }
+    public void setStrictMethodColumnMatching(boolean trueFalse) { strictMethodColumnMatching = trueFalse; PersistentClassManager.mappingChanged(); }
 
     boolean isStrictMethodColumnMatching() { return strictMethodColumnMatching; }
 
@@ -239,25 +329,25 @@ public final class MetaData
      * Set of prefixes to be stripped from table names to help in class to table name matching.
      * @param stripTablePrefixes a set of prefixes (Strings)
      */
-    public void setTablePrefixesToStrip(Set stripTablePrefixes) { this.stripTablePrefixes = stripTablePrefixes; }
+    public void setTablePrefixesToStrip(Set stripTablePrefixes) { this.stripTablePrefixes = stripTablePrefixes; PersistentClassManager.mappingChanged(); }
 
     /**
      * Set of suffixes to be stripped from table names to help in class to table name matching.
      * @param stripTableSuffixes a set of suffixes (Strings)
      */
-    public void setTableSuffixesToStrip(Set stripTableSuffixes) { this.stripTableSuffixes = stripTableSuffixes; }
+    public void setTableSuffixesToStrip(Set stripTableSuffixes) { this.stripTableSuffixes = stripTableSuffixes; PersistentClassManager.mappingChanged(); }
 
     /**
      * Set of prefixes to be stripped from column names to help in method to column name matching.
      * @param stripColumnPrefixes a set of prefixes (Strings)
      */
-    public void setColumnPrefixesToStrip(Set stripColumnPrefixes) { this.stripColumnPrefixes = stripColumnPrefixes; }
+    public void setColumnPrefixesToStrip(Set stripColumnPrefixes) { this.stripColumnPrefixes = stripColumnPrefixes; PersistentClassManager.mappingChanged(); }
 
     /**
      * Set of suffixes to be stripped from column names to help in method to column name matching.
      * @param stripColumnSuffixes a set of suffixes (Strings)
      */
-    public void setColumnSuffixesToStrip(Set stripColumnSuffixes) { this.stripColumnSuffixes = stripColumnSuffixes; }
+    public void setColumnSuffixesToStrip(Set stripColumnSuffixes) { this.stripColumnSuffixes = stripColumnSuffixes; PersistentClassManager.mappingChanged(); }
         
     /**
      * Returns the table metadata for a given table name.
@@ -556,6 +646,7 @@ public final class MetaData
                                       resultSet.getInt("COLUMN_SIZE"),
                                       resultSet.getInt("DECIMAL_DIGITS"),
                                       resultSet.getInt("NUM_PREC_RADIX"),
+                                      resultSet.getInt("ORDINAL_POSITION"),
                                       resultSet.getString("IS_NULLABLE").equalsIgnoreCase("Yes") ? true : false,
                                       primaryKeys.get(columnName) != null,
                                       bestRowIds.contains(columnName));
@@ -851,13 +942,14 @@ public final class MetaData
         public class Column
           {
             private String columnName, columnLabel, typeName, className;
-            private int dataType, columnSize, decimalDigits, radix;
+            private int dataType, columnSize, decimalDigits, radix, ordinalPosition;
             private boolean isNullable, isPrimaryKey, isRowId, isAutoIncrement, isReadOnly, isSearchable;
 
             Column() {}
-            Column(String columnName, String typeName, int dataType, int columnSize, int decimalDigits, int radix, boolean isNullable, boolean isPrimaryKey, boolean isRowId)
+            Column(String columnName, String typeName, int dataType, int columnSize, int decimalDigits, int radix, int ordinalPosition, boolean isNullable, boolean isPrimaryKey, boolean isRowId)
               {
                 this.columnName = columnName;
+                this.ordinalPosition = ordinalPosition;
                 this.typeName = typeName;
                 this.dataType = dataType;
                 this.columnSize = columnSize;
@@ -885,6 +977,7 @@ public final class MetaData
             public int getColumnSize() { return columnSize; }
             public int getDecimalDigits() { return decimalDigits; }
             public int getRadix() { return radix; }
+            public int getOrdinalPosition() { return ordinalPosition; }
             public boolean isNullable() { return isNullable; }
             public boolean isPrimaryKey() { return isPrimaryKey; }
             public boolean isRowId() { return isRowId; }
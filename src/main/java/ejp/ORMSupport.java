@@ -17,7 +17,6 @@ package ejp;
 
 import ejp.MetaData.Table;
 import ejp.PersistentClassManager.ClassInformation;
-import ejp.utilities.ObjectFiller;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.SQLException;
@@ -33,8 +32,7 @@ import java.util.ArrayList;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import ejp.utilities.ObjectConverter;
-import ejp.utilities.ObjectFiller.GetHandler;
-import ejp.utilities.ObjectFiller.ItemNotFoundException;
+import ejp.utilities.PropertyAccessor;
 import ejp.utilities.StringUtils;
 import ejp.interfaces.GeneratedKeys;
 import ejp.annotations.GlobalDelete;
@@ -50,6 +48,7 @@ import java.util.LinkedList;
 import java.util.ListIterator;
 import java.util.Queue;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 @SuppressWarnings("unchecked")
@@ -60,6 +59,22 @@ final class ORMSupport
     static final int TRANS_DELETE_OBJECT = 3;
     static final int MAX_JOINS = 20;
 
+    /**
+     * Orders a table's columns as the database does (then by name), so the 
+     * values of every object of a class are visited in the same order and 
+     * produce the same SQL.
+     */
+    static final Comparator<MetaData.Table.Column> COLUMN_ORDER = new Comparator<MetaData.Table.Column>()
+      {
+        public int compare(MetaData.Table.Column c1, MetaData.Table.Column c2)
+          {
+            if (c1.getOrdinalPosition() != c2.getOrdinalPosition())
+              return c1.getOrdinalPosition() < c2.getOrdinalPosition() ? -1 : 1;
+
+            return String.valueOf(c1.getColumnName()).compareTo(String.valueOf(c2.getColumnName()));
+          }
+      };
+
     static Result queryObject(Database db, Object object, boolean idColumnsOnly, String externalClauses, Object[] parameters) throws DatabaseException, SQLException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
       {
         if (object == null)
@@ -79,65 +94,50 @@ final class ORMSupport
         logger.debug("parameters[] = {}", StringUtils.toString(parameters));
         logger.debug("IdColumnsOnly = {}", idColumnsOnly);
 
-        StringBuilder sqlStatement = new StringBuilder(),
-                     externalClausesStrBuf = null;
+        String sql = null;
         List values = new ArrayList();
         
         if (externalClauses == null || !externalClauses.startsWith("select"))
           {
-            StringBuilder fromStrBuf = new StringBuilder(), whereStrBuf = new StringBuilder();
+            QueryObjectHandler handler = new QueryObjectHandler(db, values);
 
-            if (externalClauses != null)
-              externalClausesStrBuf = new StringBuilder(externalClauses);
-            
-            processClasses(db, cs, object, true, idColumnsOnly, false, false, false, new QueryObjectHandler(db, fromStrBuf, whereStrBuf, externalClausesStrBuf, values));
-              
-            sqlStatement.append("select ").append("*");
+            processClasses(db, cs, object, true, idColumnsOnly, false, false, false, handler);
 
-            if (externalClauses == null || !externalClauses.startsWith("from"))
-              {
-                sqlStatement.append(" from ").append(fromStrBuf);
+            SqlShape shape = handler.shape.add(idColumnsOnly).add(externalClauses);
 
-                if (whereStrBuf.length() > 0)
-                  {
-                    if (externalClauses == null || !externalClauses.startsWith("where"))
-                      sqlStatement.append(" where ").append(whereStrBuf);
-                  }
-                else if (idColumnsOnly)
-                  throw new DatabaseException("useIdColumnsOnly is defined, but there are no Id field values available");
-              }
+            if ((sql = db.getMetaData().getSql(shape)) == null)
+              db.getMetaData().putSql(shape, sql = handler.buildSql(externalClauses, idColumnsOnly));
           }
+        else sql = externalClauses;
 
-        if (externalClauses != null)
-          {
-            sqlStatement.append(" ").append(externalClausesStrBuf);
-
-            if (parameters != null)
-              values.addAll(Arrays.asList(parameters));
-          }
+        if (externalClauses != null && parameters != null)
+          values.addAll(Arrays.asList(parameters));
 
         if (values.size() > 0)
-          return db.parameterizedQuery(sqlStatement.toString(), values.toArray()).setClass(cs);
+          return db.parameterizedQuery(sql, values.toArray()).setClass(cs);
         else
-          return db.executeQuery(sqlStatement.toString()).setClass(cs);
+          return db.executeQuery(sql).setClass(cs);
       }
 
+    /**
+     * Collects the tables and where columns of a query by example (the shape), 
+     * and the where values.  The SQL text is only built by buildSql() when the 
+     * shape hasn't been seen before.
+     */
+
     static class QueryObjectHandler implements ClassHandler
       {
         Database db;
-        String columnsStrBuf = "*";
-        StringBuilder fromStrBuf, whereStrBuf, externalClausesStrBuf;
         String identifierQuoteString;
-        Set<String> selectSet = new HashSet<String>(), whereSet = new HashSet<String>();
-        Map<String, Table> lastTable = new HashMap<String, Table>();
+        Set<String> whereSet = new HashSet<String>();
+        List<Object[]> tables = new ArrayList<Object[]>(), where = new ArrayList<Object[]>();
+        SqlShape shape = new SqlShape("select");
+        int numberTables;
         List values;
         
-        public QueryObjectHandler(Database db, StringBuilder fromStrBuf, StringBuilder whereStrBuf, StringBuilder externalClausesStrBuf, List values) throws DatabaseException
+        public QueryObjectHandler(Database db, List values) throws DatabaseException
           {
             this.db = db;
-            this.fromStrBuf = fromStrBuf;
-            this.whereStrBuf = whereStrBuf;
-            this.externalClausesStrBuf = externalClausesStrBuf;
             this.values = values;
             
             this.identifierQuoteString = db.getMetaData().getIdentifierQuoteString();
@@ -145,19 +145,15 @@ final class ORMSupport
         
         public void processClass(Class objectClass, Object object, MetaData.Table table, int numberTables, int tableNumber, Map valuesMap) throws DatabaseException, SQLException, IllegalAccessException, InvocationTargetException
           {
-            fromStrBuf.append(fromStrBuf.length() > 0 ? ", " : "").append(table.getAbsoluteTableName(true));
+            this.numberTables = numberTables;
 
-            if (numberTables > 1)
-              fromStrBuf.append(" t").append(tableNumber);
-
-            if (externalClausesStrBuf != null)
-              processExternalClauses(db, externalClausesStrBuf, table, objectClass, identifierQuoteString);
+            tables.add(new Object[] { objectClass, table, tableNumber });
+            shape.add(objectClass).add(table);
 
-            processWhere(valuesMap, table, numberTables, tableNumber);
-            processJoin(objectClass, table, numberTables, tableNumber);
+            processWhere(valuesMap, table, tableNumber);
           }
         
-        void processWhere(Map valuesMap, MetaData.Table table, int numberTables, int tableNumber)
+        void processWhere(Map valuesMap, MetaData.Table table, int tableNumber)
           {
             for (Iterator it = valuesMap.entrySet().iterator(); it.hasNext(); )
               {
@@ -169,32 +165,84 @@ final class ORMSupport
                   {
                     whereSet.add(column.getColumnName());
 
-                    if (whereStrBuf.length() > 0)
-                      whereStrBuf.append(" and ");
-
-                    if (numberTables > 1)
-                      whereStrBuf.append("t").append(tableNumber).append(".");
-
                     Object obj = entry.getValue();
+                    String operator;
 
                     if (obj instanceof NullValue)
-                      whereStrBuf.append(identifierQuoteString).append(column.getColumnName()).append(identifierQuoteString).append(" is null");
+                      operator = " is null";
                     else
                       {
                         values.add(obj);
 
-                        whereStrBuf.append(identifierQuoteString).append(column.getColumnName()).append(identifierQuoteString).append(hasWildCards(obj.toString()) ? " like ?" : " = ?");
+                        operator = hasWildCards(obj.toString()) ? " like ?" : " = ?";
                       }
+
+                    where.add(new Object[] { table, column, operator });
+                    shape.add(column).add(operator);
+                  }
+              }
+          }
+
+        String buildSql(String externalClauses, boolean idColumnsOnly) throws DatabaseException
+          {
+            StringBuilder sqlStatement = new StringBuilder(), fromStrBuf = new StringBuilder(), whereStrBuf = new StringBuilder(), 
+                          externalClausesStrBuf = externalClauses != null ? new StringBuilder(externalClauses) : null;
+            MetaData.Table last = null;
+
+            for (Object[] t : tables)
+              {
+                Class objectClass = (Class)t[0];
+                MetaData.Table table = (MetaData.Table)t[1];
+                int tableNumber = (Integer)t[2];
+
+                fromStrBuf.append(fromStrBuf.length() > 0 ? ", " : "").append(table.getAbsoluteTableName(true));
+
+                if (numberTables > 1)
+                  fromStrBuf.append(" t").append(tableNumber);
+
+                if (externalClausesStrBuf != null)
+                  processExternalClauses(db, externalClausesStrBuf, table, objectClass, identifierQuoteString);
+
+                for (Object[] w : where)
+                  if (w[0] == table)
+                    {
+                      if (whereStrBuf.length() > 0)
+                        whereStrBuf.append(" and ");
+
+                      if (numberTables > 1)
+                        whereStrBuf.append("t").append(tableNumber).append(".");
+
+                      whereStrBuf.append(identifierQuoteString).append(((MetaData.Table.Column)w[1]).getColumnName()).append(identifierQuoteString).append(w[2]);
+                    }
+
+                last = processJoin(objectClass, table, last, whereStrBuf, tableNumber);
+              }
+
+            sqlStatement.append("select ").append("*");
+
+            if (externalClauses == null || !externalClauses.startsWith("from"))
+              {
+                sqlStatement.append(" from ").append(fromStrBuf);
+
+                if (whereStrBuf.length() > 0)
+                  {
+                    if (externalClauses == null || !externalClauses.startsWith("where"))
+                      sqlStatement.append(" where ").append(whereStrBuf);
                   }
+                else if (idColumnsOnly)
+                  throw new DatabaseException("useIdColumnsOnly is defined, but there are no Id field values available");
               }
+
+            if (externalClauses != null)
+              sqlStatement.append(" ").append(externalClausesStrBuf);
+
+            return sqlStatement.toString();
           }
         
-        void processJoin(Class cs, MetaData.Table table, int numberTables, int tableNumber) throws DatabaseException
+        MetaData.Table processJoin(Class cs, MetaData.Table table, MetaData.Table last, StringBuilder whereStrBuf, int tableNumber) throws DatabaseException
           {
             if (numberTables > 1)
               {
-                MetaData.Table last = (MetaData.Table)lastTable.get("table");
-
                 if (last != null)
                   {
                     Set keys = getMatchingImportedExportedKeys(table.getImportedKeys(), last.getExportedKeys());
@@ -215,8 +263,10 @@ final class ORMSupport
                       } 
                   }
 
-                lastTable.put("table", table);
+                return table;
               }
+
+            return last;
           }
       }
     
@@ -231,11 +281,11 @@ final class ORMSupport
 
         PersistenceManager.remove(object);
         
-        LoadClassHandler classHandler = new LoadClassHandler(result);
-        
-        processClasses(result.getDatabase(), objectClass, object, false, false, false, false, true, classHandler);
+        RowPlan plan = result.getRowPlan(objectClass);
+
+        plan.load(result, object);
 
-        if (classHandler.canPersist)
+        if (plan.canPersist())
           PersistenceManager.get(object).isPersistent = true;
 
         Boolean ignoreAssociations = result.getIgnoreAssociations() != null 
@@ -250,102 +300,17 @@ final class ORMSupport
         return object;
       }
     
-    static class LoadClassHandler implements ClassHandler
-      {
-        Result result;
-        MetaData metaData;
-        boolean hasTableInformation, canPersist;
-        
-        LoadClassHandler(Result result) throws DatabaseException
-          {
-            this.result = result;
-
-            metaData = result.getDatabase().getMetaData();
-          }
-      
-        public void processClass(final Class objectClass, final Object object, final MetaData.Table table, final int numberTables, final int tableNumber, Map valuesMap) throws DatabaseException, SQLException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
-          {
-            ObjectFiller.fillObject(new GetHandler() 
-              {
-                public Object get(String key, Class objectType) throws ItemNotFoundException
-                  {
-                    boolean columnFound = false;
-                    Object obj = null;
-                    String name = null;
-
-                    if ((name = result.getDatabase().getPersistentClassManager().getColumnMapping(objectClass, key)) == null)
-                      name = StringUtils.camelCaseToLowerCaseUnderline(key);
-                    else name = name.toLowerCase();
-
-                    name = metaData.stripColumnName(name);
-
-                    Integer columnNumber = result.getColumnNumber(name);
-
-                    if (columnNumber == null)
-                      {
-                        name = metaData.stripColumnName(key).toLowerCase();
-                        columnNumber = result.getColumnNumber(name);
-                      }
-                    
-                    if (columnNumber != null)
-                      try
-                        {
-                          obj = result.getColumnValue(objectType, columnNumber);
-                          columnFound = true;
-                        }
-                      catch (Exception e) {} // don't care
-
-                    if (!columnFound)
-                      throw(new ItemNotFoundException());
-                    
-                    return obj;
-                  }
-              }, object, numberTables > 1 ? objectClass : null, true, false, null, true);
-
-            if (table != null)
-              {
-                loadKeys(table, objectClass, object, tableNumber);
-                canPersist = true;
-              }
-          }
-        
-        void loadKeys(MetaData.Table table, Class objectClass, Object object, int tableNumber) throws DatabaseException
-          {
-            Set ids = new HashSet();
-            
-            ids.addAll(table.getPrimaryKeys().keySet());
-            ids.addAll(table.getImportedKeys().keySet());
-
-            String columnName = null;
-            Object value = null;
-            
-            for (Iterator it = ids.iterator(); it.hasNext();)
-              {
-                columnName = (String)it.next();
-
-                Integer columnNumber = result.getColumnNumber(columnName.toLowerCase());
-
-                if (columnNumber != null)
-                  try
-                    {
-                      value = result.getColumnValue(columnNumber);
-
-                      PersistenceManager.get(object).keyValues.put(columnName, value);
-                    }
-                  catch (Exception e2) {} // don't care
-              }
-          }
-      }
-
     public static void loadAssociations(Database db, Object object, boolean lazyLoad) throws DatabaseException, SQLException, InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
       {
         Class objectClass = object.getClass();
         Class parameterType = null;
 
-        for (Method method : objectClass.getMethods())
+        for (Method method : PropertyAccessor.get(objectClass).getMethods())
           {
             if (method.getName().startsWith("set") && method.getParameterTypes().length > 0)
               {
+                db.checkDeadline();
+
                 parameterType = method.getParameterTypes()[0];
 
                 if (Collection.class.isAssignableFrom(parameterType))
@@ -386,15 +351,15 @@ final class ORMSupport
                     else 
                       {
                         lazyLoad = false;
-                        collection = (Collection)parameterType.newInstance();
+                        collection = (Collection)PropertyAccessor.get(parameterType).newInstance();
                       }
 
-                    if (lazyLoad || copyAssociationIds(db, associationObject = associationClass.newInstance(), object, false))
+                    if (lazyLoad || copyAssociationIds(db, associationObject = PropertyAccessor.get(associationClass).newInstance(), object, false))
                       {
                         Result result = null;
                         
                         if (!lazyLoad)
-                          result = db.queryObject(associationObject);
+                          result = db.queryObjectForLoad(associationObject, null, (Object[])null);
 
                         try
                           {
@@ -407,7 +372,7 @@ final class ORMSupport
                                   }
                                 
                                 if (!returnOnly && (lazyLoad || collection.size() > 0))
-                                  method.invoke(object, new Object[] { collection });
+                                  PropertyAccessor.setValue(method, object, collection);
                               }
                             
                             return collection;
@@ -441,11 +406,11 @@ final class ORMSupport
 
             if (db.getMetaData().getTable(db, tableName, associationClass) != null)
               {
-                Object associationObject = associationClass.newInstance();
+                Object associationObject = PropertyAccessor.get(associationClass).newInstance();
 
                 if (copyAssociationIds(db, associationObject, object, false))
                   {
-                    Result result = db.queryObject(associationObject);
+                    Result result = db.queryObjectForLoad(associationObject, null, (Object[])null);
 
                     try
                       {
@@ -455,7 +420,7 @@ final class ORMSupport
                           tmp.add(result.next());
 
                         if (tmp.size() > 0)
-                          method.invoke(object, new Object[] { tmp.toArray((Object[])Array.newInstance(parameterType,tmp.size())) });
+                          PropertyAccessor.setValue(method, object, tmp.toArray((Object[])Array.newInstance(parameterType,tmp.size())));
                       }
                     finally
                       {
@@ -477,7 +442,7 @@ final class ORMSupport
 
         if (associationTable != null)
           {
-            Object associationObject = parameterType.newInstance();
+            Object associationObject = PropertyAccessor.get(parameterType).newInstance();
             boolean importedAssociationFound = false;
 
             if (associationTable.getExportedKeys() != null)
@@ -492,14 +457,14 @@ final class ORMSupport
 
             if (copyAssociationIds(db, associationObject, object, importedAssociationFound))
               {
-                Result result = db.queryObject(associationObject);
+                Result result = db.queryObjectForLoad(associationObject, null, (Object[])null);
 
                 try
                   {
                     Object obj = result.next();
 
                     if (obj != null)
-                      method.invoke(object, new Object[] { obj });
+                      PropertyAccessor.setValue(method, object, obj);
                   }
                 finally
                   {
@@ -560,7 +525,15 @@ final class ORMSupport
               {
                 try
                   {
-                    Result result = queryObject(db, object, true, null, (Object[])null);
+                    Result result;
+
+                    db.beginForwardOnly();
+
+                    try
+                      {
+                        result = queryObject(db, object, true, null, (Object[])null);
+                      }
+                    finally { db.endForwardOnly(); }
 
                     try
                       {
@@ -624,7 +597,7 @@ final class ORMSupport
         int returnValue = 0;
         Class objectClass = object.getClass(), returnType = null;
 
-        for (Method method : objectClass.getMethods())
+        for (Method method : PropertyAccessor.get(objectClass).getMethods())
           {
             if (method.getName().startsWith("get"))
               {
@@ -661,7 +634,7 @@ final class ORMSupport
 
                     if (associationTable != null)
                       {
-                        Object returnObject = method.invoke(object, new Object[] {});
+                        Object returnObject = PropertyAccessor.getValue(method, object);
 
                         if (returnObject != null)
                           {
@@ -708,7 +681,7 @@ final class ORMSupport
 
                 if (associationTable != null)
                   {
-                    Object returnObject = method.invoke(object, new Object[] {});
+                    Object returnObject = PropertyAccessor.getValue(method, object);
 
                     if (returnObject != null)
                       {
@@ -755,7 +728,7 @@ final class ORMSupport
 
             if (imports == importedAssociationFound)
               {
-                Object associationObject = method.invoke(object, new Object[] {});
+                Object associationObject = PropertyAccessor.getValue(method, object);
 
                 if (associationObject != null)
                   {
@@ -823,37 +796,41 @@ final class ORMSupport
       
         public void processClass(Class objectClass, Object object, MetaData.Table table, int numberTables, int tableNumber, Map valuesMap) throws DatabaseException, SQLException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
           {
-            StringBuffer sqlStatement = new StringBuffer("insert into " + table.getAbsoluteTableName(true) + " ("),
-                         columnsStrBuf = new StringBuffer(),
-                         valuesStrBuf = new StringBuffer();
             List columnValues = new ArrayList(), keysRequested = null, keysReturned = null;
+            List<MetaData.Table.Column> columns = new ArrayList<MetaData.Table.Column>();
+            SqlShape shape = new SqlShape("insert").add(table);
             
-            processColumns(table, valuesMap, sqlStatement, columnsStrBuf, valuesStrBuf, columnValues);
+            processColumns(table, valuesMap, columns, columnValues, shape);
+
+            String sql = db.getMetaData().getSql(shape);
+
+            if (sql == null)
+              db.getMetaData().putSql(shape, sql = buildSql(table, columns));
             
-            String dbUrl = db.getMetaData().getDatabaseUrl().toLowerCase(),
-                   possibleGeneratedKey = table.getGeneratedKey();
+            int dialect = db.getMetaData().getDialect();
+            String possibleGeneratedKey = table.getGeneratedKey();
             
             if (possibleGeneratedKey != null)
               {
                 keysRequested = new ArrayList();
                 keysRequested.add(possibleGeneratedKey);
 
-                if (dbUrl.startsWith("jdbc:oracle"))
+                if (dialect == MetaData.DIALECT_ORACLE)
                   keysReturned = new ArrayList(keysRequested);
                 else
                   keysReturned = new ArrayList();
               }
             
-            returnValues.add(new Integer(db.parameterizedUpdate(sqlStatement.toString(), keysReturned, columnValues.toArray())));
+            returnValues.add(new Integer(db.parameterizedUpdate(sql, keysReturned, columnValues.toArray())));
             
             if (!db.isBatch())
               {
-                processGeneratedKeys(table, object, dbUrl, keysRequested, keysReturned);
+                processGeneratedKeys(table, object, dialect, keysRequested, keysReturned);
                 addKeysToKeySet(table, object);
               }
           }
         
-        void processColumns(MetaData.Table table, Map valuesMap, StringBuffer sqlStatement, StringBuffer columnsStrBuf, StringBuffer valuesStrBuf, List columnValues) throws DatabaseException
+        void processColumns(MetaData.Table table, Map valuesMap, List<MetaData.Table.Column> columns, List columnValues, SqlShape shape) throws DatabaseException
           {
             int readOnly = 0;
             Map.Entry entry = null;
@@ -868,10 +845,11 @@ final class ORMSupport
                   {
                     Object obj = entry.getValue();
 
-                    if (!(obj instanceof NullValue))
+                    if (!(obj instanceof NullValue) || db.getBindNullValues())
                       {
-                        columnsStrBuf.append(columnsStrBuf.length() > 0 ? ", " : "").append(identifierQuoteString).append(column.getColumnName()).append(identifierQuoteString);
+                        columns.add(column);
                         columnValues.add(obj);
+                        shape.add(column);
                       }
                   }
                 else readOnly++;
@@ -884,16 +862,29 @@ final class ORMSupport
                 else
                   throw new DatabaseException("There must be some number of column values to insert");
               }
+          }
+
+        String buildSql(MetaData.Table table, List<MetaData.Table.Column> columns)
+          {
+            StringBuilder sqlStatement = new StringBuilder("insert into ").append(table.getAbsoluteTableName(true)).append(" ("),
+                          valuesStrBuf = new StringBuilder();
 
-            sqlStatement.append(columnsStrBuf).append(") values(");
+            for (MetaData.Table.Column column : columns)
+              {
+                if (valuesStrBuf.length() > 0)
+                  {
+                    sqlStatement.append(", ");
+                    valuesStrBuf.append(", ");
+                  }
 
-            for (Iterator it = columnValues.iterator(); it.hasNext(); it.next())
-              valuesStrBuf.append((valuesStrBuf.length() > 0 ? ", " : "")).append("?");
+                sqlStatement.append(identifierQuoteString).append(column.getColumnName()).append(identifierQuoteString);
+                valuesStrBuf.append("?");
+              }
 
-            sqlStatement.append(valuesStrBuf).append(")");
+            return sqlStatement.append(") values(").append(valuesStrBuf).append(")").toString();
           }
 
-        void processGeneratedKeys(MetaData.Table table, Object object, String dbUrl, List keysRequested, List keysReturned) throws DatabaseException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
+        void processGeneratedKeys(MetaData.Table table, Object object, int dialect, List keysRequested, List keysReturned) throws DatabaseException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
           {
             boolean success = false;
             
@@ -902,7 +893,7 @@ final class ORMSupport
             
             if (!success)
               {
-                if (dbUrl.startsWith("jdbc:oracle") && keysReturned != null && keysReturned.size() > 0)
+                if (dialect == MetaData.DIALECT_ORACLE && keysReturned != null && keysReturned.size() > 0)
                   {
                     if (keysRequested.size() != keysReturned.size())
                       throw new DatabaseException("Auto-generated keys returned (" + keysReturned.size() 
@@ -920,22 +911,22 @@ final class ORMSupport
                     boolean queryExecuted = false;
                     Result result = null;
 
-                    if (dbUrl.startsWith("jdbc:mysql"))
+                    if (dialect == MetaData.DIALECT_MYSQL)
                       {
                         result = db.executeQuery("select LAST_INSERT_ID() as id ");
                         queryExecuted = true;
                       }
-                    else if (dbUrl.startsWith("jdbc:derby") || dbUrl.startsWith("jdbc:db2"))
+                    else if (dialect == MetaData.DIALECT_DERBY || dialect == MetaData.DIALECT_DB2)
                       {
                         result = db.executeQuery("select IDENTITY_VAL_LOCAL() as id from " + table.getAbsoluteTableName(true));
                         queryExecuted = true;
                       }
-                    else if (dbUrl.startsWith("jdbc:hsqldb") || dbUrl.startsWith("jdbc:h2"))
+                    else if (dialect == MetaData.DIALECT_HSQLDB || dialect == MetaData.DIALECT_H2)
                       {
                         result = db.executeQuery("select IDENTITY() as id from " + table.getAbsoluteTableName(true));
                         queryExecuted = true;
                       }
-                    else if (dbUrl.startsWith("jdbc:postgre"))
+                    else if (dialect == MetaData.DIALECT_POSTGRESQL)
                       {
                         result = db.executeQuery("select currval('" + table.getAbsoluteTableName(true) + '_' + table.getGeneratedKey() + "_seq" + "') as id");
                         queryExecuted = true;
@@ -970,7 +961,7 @@ final class ORMSupport
 
                 if (method != null)
                   {
-                    if ((value = method.invoke(object, (Object[])null)) != null)
+                    if ((value = PropertyAccessor.getValue(method, object)) != null)
                       PersistenceManager.get(object).keyValues.put(columnName, value);
                   }
               }
@@ -996,7 +987,7 @@ final class ORMSupport
                 convertedObject = ObjectConverter.convertObject(method.getParameterTypes()[0], value);
 
                 if (convertedObject != null)
-                  method.invoke(object, new Object[] { convertedObject });
+                  PropertyAccessor.setValue(method, object, convertedObject);
               }
             
             PersistenceManager.get(object).keyValues.put(key, value);
@@ -1054,9 +1045,9 @@ final class ORMSupport
         
         public void processClass(Class objectClass, Object object, MetaData.Table table, int numberTables, int tableNumber, Map valuesMap) throws DatabaseException, SQLException, IllegalAccessException, InvocationTargetException
           {
-            StringBuilder sqlStatement = new StringBuilder();
             List columnValues = new ArrayList(), whereValues = new ArrayList();
-            StringBuffer columnsStrBuf = new StringBuffer(), whereStrBuf = new StringBuffer();
+            List<Object[]> columns = new ArrayList<Object[]>(), where = new ArrayList<Object[]>();
+            SqlShape shape = new SqlShape("update").add(table).add(objectClass).add(externalClauses);
             Map.Entry entry = null;
             MetaData.Table.Column column = null;
             String columnName = null;
@@ -1071,11 +1062,11 @@ final class ORMSupport
 
                 if (!column.isReadOnly())
                   {
-                    if (obj instanceof NullValue)
-                      columnsStrBuf.append(columnsStrBuf.length() > 0 ? ", " : "").append(identifierQuoteString).append(columnName).append(identifierQuoteString).append(" = null");
+                    if (obj instanceof NullValue && !db.getBindNullValues())
+                      columns.add(new Object[] { column, " = null" });
                     else
                       {
-                        columnsStrBuf.append(columnsStrBuf.length() > 0 ? ", " : "").append(identifierQuoteString).append(columnName).append(identifierQuoteString).append(" = ?");
+                        columns.add(new Object[] { column, " = ?" });
                         columnValues.add(obj);
                       }
                   }
@@ -1086,37 +1077,61 @@ final class ORMSupport
                 if ((obj = PersistenceManager.get(object).keyValues.get(columnName)) != null)
                   if (column.isSearchable())
                     {
-                      whereStrBuf.append(whereStrBuf.length() > 0 ? " and " : "").append(identifierQuoteString).append(columnName).append(identifierQuoteString).append(hasWildCards(obj.toString()) ? " like ?" : " = ?");
+                      where.add(new Object[] { column, hasWildCards(obj.toString()) ? " like ?" : " = ?" });
                       whereValues.add(obj);
                     }
               }
 
+            if (externalClauses != null && parameters != null)
+              whereValues.addAll(Arrays.asList(parameters));
+
+            if (columnValues.size() > 0 && (whereValues.size() > 0 || objectClass.isAnnotationPresent(GlobalUpdate.class)))
+              {
+                for (Object[] c : columns)
+                  shape.add(c[0]).add(c[1]);
+
+                shape.add("where");
+
+                for (Object[] w : where)
+                  shape.add(w[0]).add(w[1]);
+
+                String sql = db.getMetaData().getSql(shape);
+
+                if (sql == null)
+                  db.getMetaData().putSql(shape, sql = buildSql(objectClass, table, columns, where));
+
+                columnValues.addAll(whereValues);
+
+                returnValues.add(new Integer(db.parameterizedUpdate(sql, columnValues.toArray())));
+              }
+            else
+              throw new DatabaseException("Object is not updatable because it is not persistent, it does not have a where clause, and it does not extend GlobalUpdate");
+          }
+
+        String buildSql(Class objectClass, MetaData.Table table, List<Object[]> columns, List<Object[]> where) throws DatabaseException
+          {
+            StringBuilder sqlStatement = new StringBuilder(), columnsStrBuf = new StringBuilder(), whereStrBuf = new StringBuilder();
+
+            for (Object[] c : columns)
+              columnsStrBuf.append(columnsStrBuf.length() > 0 ? ", " : "").append(identifierQuoteString).append(((MetaData.Table.Column)c[0]).getColumnName()).append(identifierQuoteString).append(c[1]);
+
+            for (Object[] w : where)
+              whereStrBuf.append(whereStrBuf.length() > 0 ? " and " : "").append(identifierQuoteString).append(((MetaData.Table.Column)w[0]).getColumnName()).append(identifierQuoteString).append(w[1]);
+
             sqlStatement.append("update ").append(table.getAbsoluteTableName(true)).append(" set ").append(columnsStrBuf);
 
             if (whereStrBuf.length() > 0 && (externalClauses == null || !externalClauses.startsWith("where")))
               sqlStatement.append(" where ").append(whereStrBuf);
 
-            StringBuilder externalClausesStrBuf = null;
-            
-            if (externalClauses != null)
-              processExternalClauses(db, externalClausesStrBuf = new StringBuilder(externalClauses), table, objectClass, identifierQuoteString);
-            
             if (externalClauses != null)
               {
-                sqlStatement.append(" ").append(externalClausesStrBuf);
+                StringBuilder externalClausesStrBuf = new StringBuilder(externalClauses);
 
-                if (parameters != null)
-                  whereValues.addAll(Arrays.asList(parameters));
+                processExternalClauses(db, externalClausesStrBuf, table, objectClass, identifierQuoteString);
+                sqlStatement.append(" ").append(externalClausesStrBuf);
               }
 
-            if (columnValues.size() > 0 && (whereValues.size() > 0 || objectClass.isAnnotationPresent(GlobalUpdate.class)))
-              {
-                columnValues.addAll(whereValues);
-
-                returnValues.add(new Integer(db.parameterizedUpdate(sqlStatement.toString(), columnValues.toArray())));
-              }
-            else
-              throw new DatabaseException("Object is not updatable because it is not persistent, it does not have a where clause, and it does not extend GlobalUpdate");
+            return sqlStatement.toString();
           }
       }
     
@@ -1167,8 +1182,9 @@ final class ORMSupport
       
         public void processClass(Class objectClass, Object object, MetaData.Table table, int numberTables, int tableNumber, Map valuesMap) throws DatabaseException, SQLException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
           {
-            StringBuilder sqlStatement = new StringBuilder(), whereStrBuf = new StringBuilder();
             List values = new ArrayList();
+            SqlShape shape = new SqlShape("delete").add(table).add(objectClass).add(externalClauses);
+            List<Object[]> where = new ArrayList<Object[]>();
             Map.Entry entry = null;
             MetaData.Table.Column column = null;
             String columnName = null;
@@ -1187,12 +1203,39 @@ final class ORMSupport
                     if (!(obj instanceof NullValue) && (!PersistenceManager.isPersistent(object)
                       || (PersistenceManager.isPersistent(object) && (obj = PersistenceManager.get(object).keyValues.get(columnName)) != null)))
                         {
-                          whereStrBuf.append(whereStrBuf.length() > 0 ? " and " : "").append(identifierQuoteString).append(columnName).append(identifierQuoteString).append(hasWildCards(obj.toString()) ? " like ?" : " = ?");
+                          String operator = hasWildCards(obj.toString()) ? " like ?" : " = ?";
+
+                          where.add(new Object[] { column, operator });
+                          shape.add(column).add(operator);
                           values.add(obj);
                         }
                   }
               }
 
+            if (externalClauses != null && parameters != null)
+              values.addAll(Arrays.asList(parameters));
+
+            if (values.size() == 0 && !(objectClass.isAnnotationPresent(GlobalDelete.class)))
+              throw new DatabaseException("Object does not have a where clause and does not extend GlobalDelete");
+
+            String sql = db.getMetaData().getSql(shape);
+
+            if (sql == null)
+              db.getMetaData().putSql(shape, sql = buildSql(objectClass, table, where));
+
+            if (values.size() > 0)
+              returnValues.add(new Integer(db.parameterizedUpdate(sql, values.toArray())));
+            else
+              returnValues.add(new Integer(db.executeUpdate(sql)));
+          }
+
+        String buildSql(Class objectClass, MetaData.Table table, List<Object[]> where) throws DatabaseException
+          {
+            StringBuilder sqlStatement = new StringBuilder(), whereStrBuf = new StringBuilder();
+
+            for (Object[] w : where)
+              whereStrBuf.append(whereStrBuf.length() > 0 ? " and " : "").append(identifierQuoteString).append(((MetaData.Table.Column)w[0]).getColumnName()).append(identifierQuoteString).append(w[1]);
+
             sqlStatement.append("delete ");
 
             if (externalClauses == null || !externalClauses.startsWith("from"))
@@ -1203,25 +1246,15 @@ final class ORMSupport
                   sqlStatement.append(" where ").append(whereStrBuf);
               }
             
-            StringBuilder externalClausesStrBuf = null;
-            
-            if (externalClauses != null)
-              processExternalClauses(db, externalClausesStrBuf = new StringBuilder(externalClauses), table, objectClass, identifierQuoteString);
-
             if (externalClauses != null)
               {
-                sqlStatement.append(" ").append(externalClausesStrBuf);
+                StringBuilder externalClausesStrBuf = new StringBuilder(externalClauses);
 
-                if (parameters != null)
-                  values.addAll(Arrays.asList(parameters));
+                processExternalClauses(db, externalClausesStrBuf, table, objectClass, identifierQuoteString);
+                sqlStatement.append(" ").append(externalClausesStrBuf);
               }
 
-            if (values.size() > 0)
-              returnValues.add(new Integer(db.parameterizedUpdate(sqlStatement.toString(), values.toArray())));
-            else if (!(objectClass.isAnnotationPresent(GlobalDelete.class)))
-              throw new DatabaseException("Object does not have a where clause and does not extend GlobalDelete");
-            else
-              returnValues.add(new Integer(db.executeUpdate(sqlStatement.toString())));
+            return sqlStatement.toString();
           }
       }
 
@@ -1249,16 +1282,16 @@ final class ORMSupport
                   }
                 else if(setMethod == null)
                   {
-                    PersistenceManager.get(copyToObject).keyValues.put(key.getLocalColumnName(), getMethod.invoke(copyFromObject, (Object[])null));
+                    PersistenceManager.get(copyToObject).keyValues.put(key.getLocalColumnName(), PropertyAccessor.getValue(getMethod, copyFromObject));
                   }
                 else
                   {
                     obj = getMethod == null ? PersistenceManager.get(copyFromObject).keyValues.get(key.getForeignColumnName())
-                                                   : getMethod.invoke(copyFromObject, (Object[])null);
+                                                   : PropertyAccessor.getValue(getMethod, copyFromObject);
                     
                     convertedObject = ObjectConverter.convertObject(setMethod.getParameterTypes()[0], obj);
 
-                    setMethod.invoke(copyToObject, new Object[] { convertedObject });
+                    PropertyAccessor.setValue(setMethod, copyToObject, convertedObject);
                   }
 
                 valueCopied = true;
@@ -1277,8 +1310,23 @@ final class ORMSupport
 
     static Method getMatchingMethod(Database db, String columnName, Object object, boolean getMethod)
       {
-        Class objectClass = object.getClass();
-        Method methods[] = objectClass.getMethods();
+        DatabaseManager.PersistentClassManager classManager = db.getPersistentClassManager();
+        SqlShape key = new SqlShape(object.getClass()).add(classManager.getMappingVersion()).add(getMethod).add(columnName);
+        Method[] match = classManager.getMatchingMethod(key);
+
+        if (match == null)
+          {
+            Method method = findMatchingMethod(db, columnName, object.getClass(), getMethod);
+
+            classManager.putMatchingMethod(key, match = method != null ? new Method[] { method } : new Method[0]);
+          }
+
+        return match.length > 0 ? match[0] : null;
+      }
+
+    static Method findMatchingMethod(Database db, String columnName, Class objectClass, boolean getMethod)
+      {
+        Method methods[] = PropertyAccessor.get(objectClass).getMethods();
         String matchName = MetaData.normalizeName(columnName);
 
         for (int i = 0; i < methods.length; i++)
@@ -1408,13 +1456,13 @@ final class ORMSupport
 
             if (!loadOnly)
               {
-                valuesMap = new HashMap();
+                valuesMap = new TreeMap(COLUMN_ORDER);
 
                 if (table != null)
                   {
                     getSelectableKeyValues(db, valuesMap, table, object);
 
-                    getValuesMap(db, valuesMap, table, objectClass, object, IdColumnsOnly, isUpdate, allFieldsSt);
+                    getValuesMap(db, valuesMap, table, objectClass, object, IdColumnsOnly, isUpdate || (ch instanceof InsertClassHandler && db.getBindNullValues()), allFieldsSt);
                   }
               }
             
@@ -1459,9 +1507,9 @@ final class ORMSupport
             }
       }
 
-    static void getValuesMap(Database db, Map valuesMap, MetaData.Table table, Class objectClass, Object object, boolean IdColumnsOnly, boolean isUpdate, boolean allFieldsSti) throws IllegalAccessException, InvocationTargetException, DatabaseException
+    static void getValuesMap(Database db, Map valuesMap, MetaData.Table table, Class objectClass, Object object, boolean IdColumnsOnly, boolean includeNulls, boolean allFieldsSti) throws IllegalAccessException, InvocationTargetException, DatabaseException
       {
-        Method methods[] = objectClass.getMethods();
+        Method methods[] = PropertyAccessor.get(objectClass).getGetters();
         ClassInformation ci = db.getPersistentClassManager().get(objectClass);
         MetaData.Table.Column column = null;
         String propertyName = null;
@@ -1479,7 +1527,7 @@ final class ORMSupport
                   {
                     if (object != null)
                       {
-                        value = methods[i].invoke(object, (Object[])null);
+                        value = PropertyAccessor.getValue(methods[i], object);
 
                         if (IdColumnsOnly == false || table.getPrimaryKeys().isEmpty() || column.isPrimaryKey())
                           {
@@ -1487,8 +1535,8 @@ final class ORMSupport
                               valuesMap.put(column, value);
                             else
                               {
-                                if (isUpdate || ci.nullValuesToIncludeInQueries != null)
-                                  if (isUpdate || ci.nullValuesToIncludeInQueries.contains(Character.toLowerCase(propertyName.charAt(0)) + propertyName.substring(1)))
+                                if (includeNulls || ci.nullValuesToIncludeInQueries != null)
+                                  if (includeNulls || ci.nullValuesToIncludeInQueries.contains(Character.toLowerCase(propertyName.charAt(0)) + propertyName.substring(1)))
                                     valuesMap.put(column, new NullValue(column.getDataType()));
                               }
                           }
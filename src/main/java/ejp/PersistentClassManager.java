@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +37,7 @@ final public class PersistentClassManager
     private static Logger logger = LoggerFactory.getLogger(PersistentClassManager.class);
     private static Map<Class, ClassInformation> classMap = Collections.synchronizedMap(new HashMap<Class, ClassInformation>());
     private static Boolean defaultReloadAfterSave = true, defaultIgnoreAssociations = false, defaultLazyLoading = true;
+    private static AtomicInteger mappingVersion = new AtomicInteger();
 
     /**
      * Define the table to use with this class. Overrides the default table search.
@@ -49,6 +51,7 @@ final public class PersistentClassManager
         logger.debug("tableMapping = {}", tableMapping);
 
         get(cs).tableMapping = tableMapping;
+        mappingChanged();
       }
 
     /**
@@ -63,6 +66,7 @@ final public class PersistentClassManager
         logger.debug("columnMapping = {}", columnMapping);
 
         get(cs).columnMapping = columnMapping;
+        mappingChanged();
       }
 
     /**
@@ -214,6 +218,29 @@ final public class PersistentClassManager
         logger.debug("cs = {}", cs);
 
         classMap.remove(cs);
+        mappingChanged();
+      }
+
+    /**
+     * Notes a change to how properties are matched to tables and columns 
+     * (here, in a DatabaseManager.PersistentClassManager or in MetaData), 
+     * so what was worked out from the old matching (row plans, matched 
+     * methods) isn't used again.
+     */
+
+    static void mappingChanged()
+      {
+        mappingVersion.incrementAndGet();
+      }
+
+    /**
+     * Returns the number of changes to how properties are matched to tables 
+     * and columns (see mappingChanged()).
+     */
+
+    static int getMappingVersion()
+      {
+        return mappingVersion.get();
       }
 
     static String getColumnMapping(Class cs, String propertyName)
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license 
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not, 
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.sql.Connection;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * A per-DatabaseManager background thread that looks after idle pooled
+ * connections: connections are validated with Connection.isValid(), retired
+ * after a maximum lifetime, and closed after sitting idle too long (as long as
+ * the minimum idle count is kept).  Borrowers never wait on this work.
+ */
+
+final class PoolHousekeeper implements Runnable
+  {
+    private static Logger logger = LoggerFactory.getLogger(PoolHousekeeper.class);
+
+    private String databaseName;
+    private DatabasePool databasePool;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile long interval = 30000, maxLifetime = 1800000, idleTimeout = 600000;
+    private volatile int validationTimeout = 5, minIdle;
+
+    PoolHousekeeper(String databaseName, DatabasePool databasePool)
+      {
+        this.databaseName = databaseName;
+        this.databasePool = databasePool;
+      }
+
+    /**
+     * Sets the interval, stopping the thread for an interval of zero.  A 
+     * later positive interval starts it again with the next connection.
+     */
+
+    void setInterval(long interval)
+      {
+        this.interval = interval;
+
+        if (interval <= 0)
+          stop();
+      }
+
+    void setMaxLifetime(long maxLifetime) { this.maxLifetime = maxLifetime; }
+
+    void setIdleTimeout(long idleTimeout) { this.idleTimeout = idleTimeout; }
+
+    void setValidationTimeout(int validationTimeout) { this.validationTimeout = validationTimeout; }
+
+    void setMinIdle(int minIdle) { this.minIdle = minIdle; }
+
+    int getMinIdle() { return minIdle; }
+
+    synchronized void start()
+      {
+        if (thread == null && interval > 0)
+          {
+            logger.debug("Starting housekeeping for {}, interval = {}", databaseName, interval);
+
+            running = true;
+            thread = new Thread(this, "ejp-housekeeper-" + databaseName);
+            thread.setDaemon(true);
+            thread.start();
+          }
+      }
+
+    synchronized void stop()
+      {
+        running = false;
+
+        if (thread != null)
+          {
+            thread.interrupt();
+            thread = null;
+          }
+      }
+
+    public void run()
+      {
+        while (running)
+          {
+            long interval = this.interval;
+
+            if (interval <= 0)
+              break;
+
+            try
+              {
+                Thread.sleep(interval);
+              }
+            catch (InterruptedException e)
+              {
+                break;
+              }
+
+            try
+              {
+                housekeep();
+              }
+            catch (Exception e)
+              {
+                logger.error(e.toString(), e);
+              }
+          }
+
+        logger.debug("Housekeeping stopped for {}", databaseName);
+      }
+
+    /**
+     * Makes one pass over the idle databases.  Each one is taken out of the pool
+     * with a permit, so the pool never holds more connections than its size.
+     */
+
+    void housekeep()
+      {
+        int idle = databasePool.getIdleCount(), retired = 0;
+
+        for (int i = 0; i < idle && running; i++)
+          {
+            Database db = databasePool.borrowIdle();
+
+            if (db == null)
+              break;
+
+            long now = System.currentTimeMillis();
+            String reason = null;
+
+            if (maxLifetime > 0 && now - db.connectionCreated > maxLifetime)
+              reason = "max lifetime reached";
+            else if (idleTimeout > 0 && now - db.connectionReleased > idleTimeout && databasePool.getIdleCount() >= minIdle)
+              reason = "idle timeout reached";
+            else if (!isValid(db.getConnection()))
+              reason = "validation failed";
+
+            if (reason == null)
+              databasePool.release(db);
+            else
+              {
+                logger.debug("Retiring connection for {}: {}", databaseName, reason);
+
+                try { db.getConnection().close(); }
+                catch (Exception e) { } // don't care, it's being discarded
+
+                databasePool.release(null);
+                retired++;
+              }
+          }
+
+        if (retired > 0)
+          logger.info("Housekeeping retired {} connection(s) for {}", retired, databaseName);
+      }
+
+    private boolean isValid(Connection connection)
+      {
+        try
+          {
+            return connection.isValid(validationTimeout);
+          }
+        catch (AbstractMethodError e) // pre JDBC 4 driver
+          {
+            try
+              {
+                return !connection.isClosed();
+              }
+            catch (Exception e2)
+              {
+                return false;
+              }
+          }
+        catch (Exception e)
+          {
+            return false;
+          }
+      }
+  }
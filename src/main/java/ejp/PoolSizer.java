@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import ejp.DatabaseManager.PoolSizingDecision;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * A per-DatabaseManager background thread that resizes the pool between a
+ * lower and upper bound.  Every interval it looks at what happened since the
+ * last pass: the average time borrowers waited, timeouts, and utilization
+ * (the time databases were held divided by the time available in the pool).
+ * The pool grows by a quarter when borrowers waited longer than the target
+ * wait time, or timed out, and shrinks by one when nobody waited and
+ * utilization was low.  Each change is kept as a PoolSizingDecision.
+ */
+
+final class PoolSizer implements Runnable
+  {
+    private static Logger logger = LoggerFactory.getLogger(PoolSizer.class);
+    private static final int MAX_DECISIONS = 50;
+    private static final double LOW_UTILIZATION = 0.5;
+
+    private String databaseName;
+    private DatabasePool databasePool;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile int minPoolSize, maxPoolSize;
+    private volatile long interval = 10000, targetWaitTime = 50;
+    private long lastSample, lastBorrowCount, lastWaitCount, lastTimeoutCount, lastWaitTime, lastHoldTime;
+    private LinkedList<PoolSizingDecision> decisions = new LinkedList<PoolSizingDecision>();
+
+    PoolSizer(String databaseName, DatabasePool databasePool)
+      {
+        this.databaseName = databaseName;
+        this.databasePool = databasePool;
+      }
+
+    void setBounds(int minPoolSize, int maxPoolSize)
+      {
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+      }
+
+    void setInterval(long interval) { this.interval = interval; }
+
+    void setTargetWaitTime(long targetWaitTime) { this.targetWaitTime = targetWaitTime; }
+
+    synchronized List<PoolSizingDecision> getDecisions() { return new ArrayList<PoolSizingDecision>(decisions); }
+
+    synchronized void start()
+      {
+        if (thread == null && interval > 0)
+          {
+            logger.debug("Starting adaptive pool sizing for {}, bounds = {} - {}", new Object[] {databaseName, minPoolSize, maxPoolSize});
+
+            running = true;
+            sample();
+            thread = new Thread(this, "ejp-poolsizer-" + databaseName);
+            thread.setDaemon(true);
+            thread.start();
+          }
+      }
+
+    synchronized void stop()
+      {
+        running = false;
+
+        if (thread != null)
+          {
+            thread.interrupt();
+            thread = null;
+          }
+      }
+
+    public void run()
+      {
+        while (running)
+          {
+            try
+              {
+                Thread.sleep(interval);
+              }
+            catch (InterruptedException e)
+              {
+                break;
+              }
+
+            try
+              {
+                resize();
+              }
+            catch (Exception e)
+              {
+                logger.error(e.toString(), e);
+              }
+          }
+
+        logger.debug("Adaptive pool sizing stopped for {}", databaseName);
+      }
+
+    /**
+     * Looks at the pool counters since the last pass, and grows or shrinks
+     * the pool if needed.
+     */
+
+    synchronized void resize()
+      {
+        long now = System.nanoTime(), elapsed = now - lastSample,
+             borrows = databasePool.getBorrowCount() - lastBorrowCount,
+             waits = databasePool.getWaitCount() - lastWaitCount,
+             timeouts = databasePool.getTimeoutCount() - lastTimeoutCount,
+             waitTime = databasePool.getWaitTimeNanos() - lastWaitTime,
+             holdTime = databasePool.getHoldTimeNanos() - lastHoldTime;
+        int size = databasePool.getMaxPoolSize(), newSize = size;
+        long averageWait = waits > 0 ? TimeUnit.NANOSECONDS.toMillis(waitTime / waits) : 0;
+        double utilization = elapsed > 0 && size > 0 ? (double)holdTime / ((double)elapsed * size) : 0;
+        String reason = null;
+
+        sample();
+
+        if ((timeouts > 0 || (waits > 0 && averageWait > targetWaitTime)) && size < maxPoolSize)
+          {
+            newSize = Math.min(maxPoolSize, size + Math.max(1, size / 4));
+            reason = timeouts > 0 ? "borrowers timed out" : "average wait above target";
+          }
+        else if (waits == 0 && utilization < LOW_UTILIZATION && size > minPoolSize)
+          {
+            newSize = Math.max(minPoolSize, Math.max(size - 1, (int)Math.ceil(utilization * size) + 1));
+            reason = "low utilization";
+          }
+        else if (size < minPoolSize || size > maxPoolSize)
+          {
+            newSize = Math.max(minPoolSize, Math.min(maxPoolSize, size));
+            reason = "outside bounds";
+          }
+
+        if (newSize != size)
+          {
+            PoolSizingDecision decision = new PoolSizingDecision(System.currentTimeMillis(), size, newSize, reason,
+                                                                 borrows, waits, timeouts, averageWait, utilization);
+
+            logger.info("Resizing pool for {}: {}", databaseName, decision);
+
+            databasePool.setMaxPoolSize(newSize);
+            decisions.addLast(decision);
+
+            if (decisions.size() > MAX_DECISIONS)
+              decisions.removeFirst();
+          }
+      }
+
+    private void sample()
+      {
+        lastSample = System.nanoTime();
+        lastBorrowCount = databasePool.getBorrowCount();
+        lastWaitCount = databasePool.getWaitCount();
+        lastTimeoutCount = databasePool.getTimeoutCount();
+        lastWaitTime = databasePool.getWaitTimeNanos();
+        lastHoldTime = databasePool.getHoldTimeNanos();
+      }
+  }
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Runs several independent parameterized queries together.  Where the
+ * driver can return multiple open result sets from one execution, the
+ * queries are sent as one statement (one round trip), otherwise they are
+ * executed one after the other on the same database.  Either way each query
+ * gets its own Result.
+ *
+ * <p>An example of this is:
+ *
+ * <pre>
+ *   QueryGroup group = db.createQueryGroup();
+ *   QueryGroup.Query&lt;Customer&gt; customers = group.add(Customer.class, "select * from customers where region = ?", region);
+ *   QueryGroup.Query&lt;Order&gt; orders = group.add(Order.class, "select * from orders where status = ?", "open");
+ *
+ *   group.execute();
+ *
+ *   for (Customer customer : customers.getResult())
+ *     ...
+ * </pre>
+ *
+ * <p>Only select statements belong in a query group; a group that fails to
+ * run combined is run again query by query.  Results are closed like any
+ * other Result, or when the database is closed.
+ */
+public final class QueryGroup
+  {
+    private Database db;
+    private List<Query> queries = new ArrayList<Query>();
+    private boolean combined;
+
+    /**
+     * One query of a group, and its Result once the group has been executed.
+     */
+    public static final class Query<T>
+      {
+        String sql;
+        Object[] parameters;
+        Class<T> cs;
+        Result<T> result;
+
+        Query(Class<T> cs, String sql, Object[] parameters)
+          {
+            this.cs = cs;
+            this.sql = sql;
+            this.parameters = parameters;
+          }
+
+        /**
+         * Returns the SQL for this query.
+         *
+         * @return the SQL
+         */
+        public String getSql() { return sql; }
+
+        /**
+         * Returns this query's Result, or null if the group hasn't been executed.
+         *
+         * @return a Result instance
+         */
+        public Result<T> getResult() { return result; }
+      }
+
+    QueryGroup(Database db)
+      {
+        this.db = db;
+      }
+
+    List<Query> getQueries() { return queries; }
+
+    /**
+     * Adds a parameterized query whose result will load instances of cs.
+     *
+     * @param cs is the class that will be associated with the result
+     * @param sql the SQL statement
+     * @param parameters an array of objects used to set the parameters to the query
+     *
+     * @return the query, for getting its Result after execute()
+     */
+    public <T> Query<T> add(Class<T> cs, String sql, Object... parameters)
+      {
+        if (sql == null || sql.trim().length() == 0)
+          throw new IllegalArgumentException(DatabaseException.SQL_STATEMENT_NULL);
+
+        Query<T> query = new Query<T>(cs, sql, parameters);
+
+        queries.add(query);
+
+        return query;
+      }
+
+    /**
+     * Adds a parameterized query.
+     *
+     * @param sql the SQL statement
+     * @param parameters an array of objects used to set the parameters to the query
+     *
+     * @return the query, for getting its Result after execute()
+     */
+    public Query add(String sql, Object... parameters)
+      {
+        return add(null, sql, parameters);
+      }
+
+    /**
+     * Returns the number of queries in the group.
+     *
+     * @return the number of queries
+     */
+    public int size() { return queries.size(); }
+
+    /**
+     * Returns true if the last execute() sent the queries as one statement.
+     *
+     * @return true or false
+     */
+    public boolean isCombined() { return combined; }
+
+    /**
+     * Executes the queries.  Afterwards, each Query's getResult() returns
+     * its Result.
+     *
+     * @return returns this
+     *
+     * @throws DatabaseException
+     */
+    public QueryGroup execute() throws DatabaseException
+      {
+        combined = db.executeQueryGroup(this);
+
+        return this;
+      }
+  }
@@ -17,6 +17,7 @@ package ejp;
 
 import java.io.InputStream;
 import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.Array;
@@ -25,6 +26,7 @@ import java.sql.Clob;
 import java.sql.Date;
 import java.sql.Ref;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
@@ -38,10 +40,13 @@ import ejp.interfaces.BinaryStream;
 import ejp.interfaces.BinaryStreamAdapter;
 import ejp.interfaces.CharacterStreamAdapter;
 import ejp.interfaces.CharacterStream;
+import ejp.utilities.ObjectConverter;
+import ejp.utilities.PropertyAccessor;
 import java.sql.ResultSetMetaData;
 import java.util.HashMap;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The result class is created and returned by all query methods in ejp.Database,
@@ -59,6 +64,22 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
     private Statement statement;
     private Database db;
     private Class<T> cs;
+    static final int READ_OBJECT = 0, READ_INT = 1, READ_LONG = 2, READ_DOUBLE = 3, READ_FLOAT = 4, READ_SHORT = 5,
+                     READ_BYTE = 6, READ_BOOLEAN = 7, READ_ARRAY = 8, READ_BIG_DECIMAL = 9, READ_BLOB = 10, READ_CLOB = 11,
+                     READ_DATE = 12, READ_INPUT_STREAM = 13, READ_ASCII_STREAM = 14, READ_BINARY_STREAM = 15, READ_READER = 16,
+                     READ_CHARACTER_STREAM = 17, READ_REF = 18, READ_STRING = 19, READ_TIME = 20, READ_TIMESTAMP = 21, READ_URL = 22;
+    private static ConcurrentHashMap<Class, Integer> readers = new ConcurrentHashMap<Class, Integer>();
+
+    // the wrapper each primitive reader returns, by READ_* value
+    private static final Class[] primitiveReaderTypes = { null, Integer.class, Long.class, Double.class, Float.class, Short.class, Byte.class, Boolean.class };
+    private String columnSignature;
+    private Class[] columnReaderTypes;
+    private int[] columnReaders;
+    private Class rowPlanClass;
+    private RowPlan rowPlan;
+    String fetchShape;
+    int fetchRowWidth, rowCount;
+    boolean rowsCounted;
     
     /**
      * Create an instance of Result by passing in a ejp.Database instance 
@@ -139,20 +160,74 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
           }
       }
     
+    private boolean advance() throws SQLException
+      {
+        rowsCounted = true;
+
+        if (resultSet.next())
+          {
+            rowCount++;
+
+            return true;
+          }
+
+        return false;
+      }
+
     final void initColumnHash()
       {
         try
           {
             ResultSetMetaData m = resultSet.getMetaData();
+            StringBuilder signature = new StringBuilder();
             columnHash = new HashMap<String, Integer>();
+            columnSignature = null;
+            rowPlanClass = null;
+            rowPlan = null;
+            columnReaderTypes = new Class[m.getColumnCount() + 1];
+            columnReaders = new int[m.getColumnCount() + 1];
 
             for (int i = 0; i < m.getColumnCount(); i++)
               {
                 columnHash.put(m.getColumnLabel(i+1).toLowerCase(), i + 1);
                 columnHash.put(m.getColumnName(i+1).toLowerCase(), i + 1);
+                signature.append(m.getColumnLabel(i+1)).append('/').append(m.getColumnName(i+1)).append(',');
               }
+
+            columnSignature = signature.toString();
           } catch (Exception e) { logger.debug(e.toString(), e); }
       }
+
+    /**
+     * Returns the column labels and names of the result set, which along with
+     * the class decides how rows are loaded into objects.
+     */
+
+    String getColumnSignature() { return columnSignature; }
+
+    /**
+     * Returns the mapping plan for loading objects of objectClass from this 
+     * result, compiling it the first time the class and column signature are 
+     * seen.
+     */
+
+    RowPlan getRowPlan(Class objectClass) throws DatabaseException, SQLException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
+      {
+        if (rowPlanClass != objectClass)
+          {
+            DatabaseManager.PersistentClassManager classManager = db.getPersistentClassManager();
+            SqlShape shape = new SqlShape(db.getMetaData()).add(classManager.getMappingVersion()).add(objectClass).add(columnSignature);
+            RowPlan plan = classManager.getRowPlan(shape);
+
+            if (plan == null)
+              classManager.putRowPlan(shape, plan = RowPlan.compile(this, objectClass));
+
+            rowPlan = plan;
+            rowPlanClass = objectClass;
+          }
+
+        return rowPlan;
+      }
     
     /**
      * Returns the column number for the column associated with columnName.
@@ -415,7 +490,7 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
       {
         try
           {
-            return loadObject(cs.newInstance());
+            return loadObject((C)PropertyAccessor.get(cs).newInstance());
           }
         catch (Exception ex)
           {
@@ -465,7 +540,7 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
         try
           {
             while (hasNext())
-              collection.add((C)next(cs.newInstance()));
+              collection.add((C)next((C)PropertyAccessor.get(cs).newInstance()));
           }
         catch (Exception e)
           {
@@ -475,6 +550,44 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
         return collection;
       }
     
+    /**
+     * Loads the remaining rows of the result into columns (see Columns), 
+     * reading the selected columns straight into primitive arrays.
+     * 
+     * @param columns the columns to load
+     *
+     * @return the columns passed in
+     *
+     * @throws DatabaseException
+     */
+    
+    public Columns loadColumns(Columns columns) throws DatabaseException
+      {
+        try
+          {
+            columns.resolve(this);
+
+            while (lastHas || advance())
+              {
+                lastHas = false;
+
+                columns.readRow(resultSet);
+              }
+
+            columns.trim();
+          }
+        catch (DatabaseException e)
+          {
+            throw e;
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+        
+        return columns;
+      }
+    
     /**
      * Define whether or not to include associations.  This overrides the 
      * PersistentClassManager and DatabaseManager.PersistentClassManager version.
@@ -856,7 +969,7 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
             if (lastHas)
               return true;
             
-            return lastHas = resultSet.next();
+            return lastHas = advance();
           }
         catch (Exception e)
           {
@@ -879,7 +992,7 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
       {
         try
           {
-            return next(cs != null ? cs.newInstance() : null);
+            return next(cs != null ? (T)PropertyAccessor.get(cs).newInstance() : null);
           }
         catch (Exception e)
           {
@@ -904,7 +1017,7 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
       {
         try
           {
-            if (lastHas || resultSet.next())
+            if (lastHas || advance())
               {
                 lastHas = false;
                 
@@ -957,7 +1070,7 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
       {
         try
           {
-            return previous(cs != null ? cs.newInstance() : null);
+            return previous(cs != null ? (T)PropertyAccessor.get(cs).newInstance() : null);
           }
         catch (Exception e)
           {
@@ -1014,7 +1127,7 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
       {
         try
           {
-            return current(cs != null ? cs.newInstance() : null);
+            return current(cs != null ? (T)PropertyAccessor.get(cs).newInstance() : null);
           }
         catch (Exception e)
           {
@@ -1160,48 +1273,11 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
       {
         try
           {
-            Object value = null;
-
-            if (returnType != null)
-              if (returnType == Array.class)
-                value = resultSet.getArray(columnName);
-              else if (returnType == BigDecimal.class)
-                value = resultSet.getBigDecimal(columnName);
-              else if (returnType == Blob.class)
-                value = resultSet.getBlob(columnName);
-              else if (returnType == Clob.class)
-                value = resultSet.getClob(columnName);
-              else if (returnType == Date.class)
-                value = resultSet.getDate(columnName);
-              else if (returnType == InputStream.class)
-                {
-                  throw new DatabaseException("Must use ejp.interfaces.AsciiStream or ejp.interfaces.BinaryStream instead of InputStream");
-                }          
-              else if (returnType.isAssignableFrom(AsciiStream.class))
-                value = new AsciiStreamAdapter(-1, resultSet.getAsciiStream(columnName));
-              else if (returnType.isAssignableFrom(BinaryStream.class))
-                value = new BinaryStreamAdapter(-1, resultSet.getBinaryStream(columnName));
-              else if (returnType == Reader.class)
-                {
-                  throw new DatabaseException("Must use ejp.interfaces.ReaderHandler instead of Reader");
-                }
-              else if (returnType.isAssignableFrom(CharacterStream.class))
-                value = new CharacterStreamAdapter(-1, resultSet.getCharacterStream(columnName));
-              else if (returnType == Ref.class)
-                value = resultSet.getRef(columnName);
-              else if (returnType == String.class)
-                value = resultSet.getString(columnName);
-              else if (returnType == Time.class)
-                value = resultSet.getTime(columnName);
-              else if (returnType == Timestamp.class)
-                value = resultSet.getTimestamp(columnName);
-              else if (returnType == URL.class)
-                value = resultSet.getURL(columnName);
-
-            if (value == null)
-              value = resultSet.getObject(columnName);
-
-            return (C)value;
+            return (C)readColumn(getReader(returnType), resultSet.findColumn(columnName));
+          }
+        catch (DatabaseException e)
+          {
+            throw e;
           }
         catch (Exception e)
           {
@@ -1246,48 +1322,330 @@ public class Result<T> implements ListIterator<T>, Iterable<T>
       {
         try
           {
-            Object value = null;
-
-            if (returnType != null)
-              if (returnType == Array.class)
-                value = resultSet.getArray(columnIndex);
-              else if (returnType == BigDecimal.class)
-                value = resultSet.getBigDecimal(columnIndex);
-              else if (returnType == Blob.class)
-                value = resultSet.getBlob(columnIndex);
-              else if (returnType == Clob.class)
-                value = resultSet.getClob(columnIndex);
-              else if (returnType == Date.class)
-                value = resultSet.getDate(columnIndex);
-              else if (returnType == InputStream.class)
+            int reader;
+
+            if (columnReaderTypes != null && columnIndex < columnReaderTypes.length && columnReaderTypes[columnIndex] == returnType)
+              reader = columnReaders[columnIndex];
+            else
+              {
+                reader = getReader(returnType);
+
+                if (columnReaderTypes != null && columnIndex < columnReaderTypes.length)
+                  {
+                    columnReaders[columnIndex] = reader;
+                    columnReaderTypes[columnIndex] = returnType;
+                  }
+              }
+
+            return (C)readColumn(reader, columnIndex);
+          }
+        catch (DatabaseException e)
+          {
+            throw e;
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+      }
+
+    /**
+     * Returns the reader (READ_*) for returnType.  It's the same choice 
+     * getColumnValue() has always made, with typed reads added for the 
+     * primitives and their wrappers, and is made once per type.
+     */
+
+    static int getReader(Class returnType)
+      {
+        if (returnType == null)
+          return READ_OBJECT;
+
+        Integer reader = readers.get(returnType);
+
+        if (reader == null)
+          readers.put(returnType, reader = chooseReader(returnType));
+
+        return reader;
+      }
+
+    private static int chooseReader(Class returnType)
+      {
+        if (returnType == int.class || returnType == Integer.class)
+          return READ_INT;
+        else if (returnType == long.class || returnType == Long.class)
+          return READ_LONG;
+        else if (returnType == double.class || returnType == Double.class)
+          return READ_DOUBLE;
+        else if (returnType == float.class || returnType == Float.class)
+          return READ_FLOAT;
+        else if (returnType == short.class || returnType == Short.class)
+          return READ_SHORT;
+        else if (returnType == byte.class || returnType == Byte.class)
+          return READ_BYTE;
+        else if (returnType == boolean.class || returnType == Boolean.class)
+          return READ_BOOLEAN;
+        else if (returnType == Array.class)
+          return READ_ARRAY;
+        else if (returnType == BigDecimal.class)
+          return READ_BIG_DECIMAL;
+        else if (returnType == Blob.class)
+          return READ_BLOB;
+        else if (returnType == Clob.class)
+          return READ_CLOB;
+        else if (returnType == Date.class)
+          return READ_DATE;
+        else if (returnType == InputStream.class)
+          return READ_INPUT_STREAM;
+        else if (returnType.isAssignableFrom(AsciiStream.class))
+          return READ_ASCII_STREAM;
+        else if (returnType.isAssignableFrom(BinaryStream.class))
+          return READ_BINARY_STREAM;
+        else if (returnType == Reader.class)
+          return READ_READER;
+        else if (returnType.isAssignableFrom(CharacterStream.class))
+          return READ_CHARACTER_STREAM;
+        else if (returnType == Ref.class)
+          return READ_REF;
+        else if (returnType == String.class)
+          return READ_STRING;
+        else if (returnType == Time.class)
+          return READ_TIME;
+        else if (returnType == Timestamp.class)
+          return READ_TIMESTAMP;
+        else if (returnType == URL.class)
+          return READ_URL;
+
+        return READ_OBJECT;
+      }
+
+    /**
+     * Returns true if reader returns exactly the wrapper of the primitive 
+     * type it was chosen for, so the value needs no conversion.
+     */
+
+    static boolean isPrimitiveReader(int reader)
+      {
+        return reader >= READ_INT && reader <= READ_BOOLEAN;
+      }
+
+    /**
+     * Reads a column of the current row with reader.  Primitives are null 
+     * for SQL NULL, and the other readers fall back to getObject() when they 
+     * return null.  A column the primitive getter can't read (a CHAR 'Y' 
+     * read as a boolean, say) is read with getObject() and converted with 
+     * ObjectConverter, as it always was.
+     */
+
+    Object readColumn(int reader, int columnIndex) throws SQLException, DatabaseException
+      {
+        if (isPrimitiveReader(reader))
+          try
+            {
+              return readTypedColumn(reader, columnIndex);
+            }
+          catch (Exception e)
+            {
+              Object value = resultSet.getObject(columnIndex);
+
+              try
                 {
-                  throw new DatabaseException("Must use ejp.interfaces.AsciiStream or ejp.interfaces.BinaryStream instead of InputStream");
-                }          
-              else if (returnType.isAssignableFrom(AsciiStream.class))
-                value = new AsciiStreamAdapter(-1, resultSet.getAsciiStream(columnIndex));
-              else if (returnType.isAssignableFrom(BinaryStream.class))
-                value = new BinaryStreamAdapter(-1, resultSet.getBinaryStream(columnIndex));
-              else if (returnType == Reader.class)
+                  return value != null ? ObjectConverter.convertObject(primitiveReaderTypes[reader], value) : null;
+                }
+              catch (Exception ce)
                 {
-                  throw new DatabaseException("Must use ejp.interfaces.ReaderHandler instead of Reader");
+                  throw new DatabaseException(ce);
                 }
-              else if (returnType.isAssignableFrom(CharacterStream.class))
-                value = new CharacterStreamAdapter(-1, resultSet.getCharacterStream(columnIndex));
-              else if (returnType == Ref.class)
-                value = resultSet.getRef(columnIndex);
-              else if (returnType == String.class)
-                value = resultSet.getString(columnIndex);
-              else if (returnType == Time.class)
-                value = resultSet.getTime(columnIndex);
-              else if (returnType == Timestamp.class)
-                value = resultSet.getTimestamp(columnIndex);
-              else if (returnType == URL.class)
-                value = resultSet.getURL(columnIndex);
-
-            if (value == null)
-              value = resultSet.getObject(columnIndex);
-
-            return (C)value;
+            }
+
+        return readTypedColumn(reader, columnIndex);
+      }
+
+    private Object readTypedColumn(int reader, int columnIndex) throws SQLException, DatabaseException
+      {
+        Object value = null;
+
+        switch (reader)
+          {
+            case READ_INT: { int v = resultSet.getInt(columnIndex); return resultSet.wasNull() ? null : Integer.valueOf(v); }
+            case READ_LONG: { long v = resultSet.getLong(columnIndex); return resultSet.wasNull() ? null : Long.valueOf(v); }
+            case READ_DOUBLE: { double v = resultSet.getDouble(columnIndex); return resultSet.wasNull() ? null : Double.valueOf(v); }
+            case READ_FLOAT: { float v = resultSet.getFloat(columnIndex); return resultSet.wasNull() ? null : Float.valueOf(v); }
+            case READ_SHORT: { short v = resultSet.getShort(columnIndex); return resultSet.wasNull() ? null : Short.valueOf(v); }
+            case READ_BYTE: { byte v = resultSet.getByte(columnIndex); return resultSet.wasNull() ? null : Byte.valueOf(v); }
+            case READ_BOOLEAN: { boolean v = resultSet.getBoolean(columnIndex); return resultSet.wasNull() ? null : Boolean.valueOf(v); }
+            case READ_ARRAY: value = resultSet.getArray(columnIndex); break;
+            case READ_BIG_DECIMAL: value = resultSet.getBigDecimal(columnIndex); break;
+            case READ_BLOB: value = resultSet.getBlob(columnIndex); break;
+            case READ_CLOB: value = resultSet.getClob(columnIndex); break;
+            case READ_DATE: value = resultSet.getDate(columnIndex); break;
+            case READ_INPUT_STREAM: throw new DatabaseException("Must use ejp.interfaces.AsciiStream or ejp.interfaces.BinaryStream instead of InputStream");
+            case READ_ASCII_STREAM: value = new AsciiStreamAdapter(-1, resultSet.getAsciiStream(columnIndex)); break;
+            case READ_BINARY_STREAM: value = new BinaryStreamAdapter(-1, resultSet.getBinaryStream(columnIndex)); break;
+            case READ_READER: throw new DatabaseException("Must use ejp.interfaces.ReaderHandler instead of Reader");
+            case READ_CHARACTER_STREAM: value = new CharacterStreamAdapter(-1, resultSet.getCharacterStream(columnIndex)); break;
+            case READ_REF: value = resultSet.getRef(columnIndex); break;
+            case READ_STRING: value = resultSet.getString(columnIndex); break;
+            case READ_TIME: value = resultSet.getTime(columnIndex); break;
+            case READ_TIMESTAMP: value = resultSet.getTimestamp(columnIndex); break;
+            case READ_URL: value = resultSet.getURL(columnIndex); break;
+            default: return resultSet.getObject(columnIndex);
+          }
+
+        return value != null ? value : resultSet.getObject(columnIndex);
+      }
+
+    /**
+     * Returns the column value from the current row as an int, or zero for 
+     * SQL NULL (see wasNull()).
+     *
+     * @param columnIndex the column index
+     *
+     * @return the value
+     *
+     * @throws DatabaseException
+     */
+
+    public int getInt(int columnIndex) throws DatabaseException
+      {
+        try
+          {
+            return resultSet.getInt(columnIndex);
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+      }
+
+    /**
+     * Returns the column value from the current row as an int, or zero for 
+     * SQL NULL (see wasNull()).
+     *
+     * @param columnName the column name
+     *
+     * @return the value
+     *
+     * @throws DatabaseException
+     */
+
+    public int getInt(String columnName) throws DatabaseException
+      {
+        try
+          {
+            return resultSet.getInt(columnName);
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+      }
+
+    /**
+     * Returns the column value from the current row as a long, or zero for 
+     * SQL NULL (see wasNull()).
+     *
+     * @param columnIndex the column index
+     *
+     * @return the value
+     *
+     * @throws DatabaseException
+     */
+
+    public long getLong(int columnIndex) throws DatabaseException
+      {
+        try
+          {
+            return resultSet.getLong(columnIndex);
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+      }
+
+    /**
+     * Returns the column value from the current row as a long, or zero for 
+     * SQL NULL (see wasNull()).
+     *
+     * @param columnName the column name
+     *
+     * @return the value
+     *
+     * @throws DatabaseException
+     */
+
+    public long getLong(String columnName) throws DatabaseException
+      {
+        try
+          {
+            return resultSet.getLong(columnName);
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+      }
+
+    /**
+     * Returns the column value from the current row as a double, or zero for 
+     * SQL NULL (see wasNull()).
+     *
+     * @param columnIndex the column index
+     *
+     * @return the value
+     *
+     * @throws DatabaseException
+     */
+
+    public double getDouble(int columnIndex) throws DatabaseException
+      {
+        try
+          {
+            return resultSet.getDouble(columnIndex);
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+      }
+
+    /**
+     * Returns the column value from the current row as a double, or zero for 
+     * SQL NULL (see wasNull()).
+     *
+     * @param columnName the column name
+     *
+     * @return the value
+     *
+     * @throws DatabaseException
+     */
+
+    public double getDouble(String columnName) throws DatabaseException
+      {
+        try
+          {
+            return resultSet.getDouble(columnName);
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+      }
+
+    /**
+     * Returns true if the last column read with getInt(), getLong() or 
+     * getDouble() was SQL NULL.
+     *
+     * @return true if the last value read was SQL NULL
+     *
+     * @throws DatabaseException
+     */
+
+    public boolean wasNull() throws DatabaseException
+      {
+        try
+          {
+            return resultSet.wasNull();
           }
         catch (Exception e)
           {
@@ -0,0 +1,667 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license 
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not, 
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import ejp.utilities.ResultSetUtils;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * A RoutingDatabaseManager splits work between a primary database and any number 
+ * of read replicas, each represented by its own DatabaseManager (and pool).  
+ * Read-only calls (loadObject, loadObjects, loadAssociations, executeQuery and 
+ * parameterizedQuery) are spread round robin across the replicas, while 
+ * saveObject, deleteObject, executeUpdate, parameterizedUpdate and transactional 
+ * work go to the primary.
+ * 
+ * <p>While a thread is inside a transaction started with beginTransaction(), or 
+ * with a TransactionManager/UpdateManager constructed with this manager, every 
+ * call the thread makes on this manager, reads included, uses the transaction's 
+ * primary Database, so it always sees its own uncommitted writes.
+ * 
+ * <pre>
+ *   RoutingDatabaseManager rdm = new RoutingDatabaseManager(primary, replica1, replica2);
+ *   
+ *   Customer customer = rdm.loadObject(new Customer("deisenhower"));  // a replica
+ *   
+ *   new TransactionManager(rdm) {
+ *     public void run() throws DatabaseException 
+ *       {
+ *         saveObject(new Order("deisenhower", ...));
+ *         rdm.loadObjects(new ArrayList&lt;Order&gt;(), new Order("deisenhower"));  // the primary
+ *       }
+ *   }.executeTransaction();
+ * </pre>
+ */
+
+@SuppressWarnings("unchecked")
+public final class RoutingDatabaseManager
+  {
+    private static Logger logger = LoggerFactory.getLogger(RoutingDatabaseManager.class);
+    
+    private DatabaseManager primary;
+    private DatabaseManager[] replicas;
+    private AtomicInteger nextReplica = new AtomicInteger();
+    private ThreadLocal<Database> transactionDatabase = new ThreadLocal<Database>();
+
+    /**
+     * Create a RoutingDatabaseManager.  With no replicas, everything goes to 
+     * the primary.
+     *
+     * @param primary the DatabaseManager for the primary (read/write) database
+     * @param replicas the DatabaseManagers for the read replicas
+     */
+    
+    public RoutingDatabaseManager(DatabaseManager primary, DatabaseManager... replicas)
+      {
+        logger.debug("Creating new RoutingDatabaseManager: primary = {}, replicas = {}", primary.getDatabaseName(), replicas.length);
+        
+        this.primary = primary;
+        this.replicas = replicas;
+      }
+
+    /**
+     * Returns the DatabaseManager for the primary database.
+     *
+     * @return the primary DatabaseManager
+     */
+    
+    public DatabaseManager getPrimary() { return primary; }
+
+    /**
+     * Returns the DatabaseManager of the next replica (round robin), or the 
+     * primary if there are no replicas.
+     *
+     * @return a replica DatabaseManager
+     */
+    
+    public DatabaseManager getReplica()
+      {
+        if (replicas.length == 0)
+          return primary;
+        
+        return replicas[(nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicas.length];
+      }
+
+    /**
+     * Returns a Database from the primary.
+     *
+     * @return an instance of Database
+     *
+     * @throws DatabaseException
+     */
+    
+    public Database getDatabase() throws DatabaseException
+      {
+        return primary.getDatabase();
+      }
+
+    /**
+     * Returns a Database from the next replica.  This should only be used for 
+     * reads, and won't see the uncommitted writes of a transaction.
+     *
+     * @return an instance of Database
+     *
+     * @throws DatabaseException
+     */
+    
+    public Database getReplicaDatabase() throws DatabaseException
+      {
+        return getReplica().getDatabase();
+      }
+
+    /**
+     * Closes the primary and all replica DatabaseManagers.
+     *
+     * @throws DatabaseException
+     */
+    
+    public void close() throws DatabaseException
+      {
+        for (DatabaseManager replica : replicas)
+          replica.close();
+        
+        primary.close();
+      }
+
+    /**
+     * Begins a transaction on a Database from the primary and binds it to the 
+     * current thread, so that all calls the thread makes on this manager use it 
+     * until endTransaction() is called.
+     *
+     * @return the Database the transaction is running on
+     *
+     * @throws DatabaseException
+     */
+    
+    public Database beginTransaction() throws DatabaseException
+      {
+        if (transactionDatabase.get() != null)
+          throw new DatabaseException("A transaction is already in progress on this thread");
+        
+        Database db = primary.getDatabase();
+        
+        try
+          {
+            db.beginTransaction();
+          }
+        catch (DatabaseException e)
+          {
+            db.close();
+            
+            throw e;
+          }
+        
+        bindTransaction(db);
+        
+        return db;
+      }
+
+    /**
+     * Ends the transaction started with beginTransaction(), and closes its Database.
+     *
+     * @throws DatabaseException
+     */
+    
+    public void endTransaction() throws DatabaseException
+      {
+        Database db = transactionDatabase.get();
+        
+        if (db == null)
+          throw new DatabaseException("No transaction is in progress on this thread");
+        
+        try
+          {
+            db.endTransaction();
+          }
+        finally
+          {
+            unbindTransaction(null);
+            db.close();
+          }
+      }
+
+    /**
+     * Returns the Database of the transaction in progress on this thread, or null.
+     *
+     * @return the transaction Database or null
+     */
+    
+    public Database getTransactionDatabase() { return transactionDatabase.get(); }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public <T> T loadObject(T object) throws DatabaseException
+      {
+        return loadObject(object, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public <T> T loadObject(Class<T> cs) throws DatabaseException
+      {
+        return loadObject(cs, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public <T> T loadObject(T object, String externalClauses, Object... externalClausesParameters) throws DatabaseException
+      {
+        Database db = getReadDatabase();
+        
+        try
+          {
+            Result<T> result = db.queryObjectForLoad(object, externalClauses, externalClausesParameters);
+            
+            try
+              {
+                if (result.hasNext())
+                  return result.next(object);
+              }
+            finally
+              {
+                result.close();
+              }
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+        
+        return null;
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public <T> T loadObject(Class<T> cs, String externalClauses, Object... externalClausesParameters) throws DatabaseException
+      {
+        Database db = getReadDatabase();
+        
+        try
+          {
+            Result<T> result = db.queryObjectForLoad(cs, externalClauses, externalClausesParameters);
+            
+            try
+              {
+                if (result.hasNext())
+                  return result.next();
+              }
+            finally
+              {
+                result.close();
+              }
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+        
+        return null;
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public <T> Collection<T> loadObjects(Collection<T> collection, T object) throws DatabaseException
+      {
+        return loadObjects(collection, object, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public <T> Collection<T> loadObjects(Collection<T> collection, Class<T> cs) throws DatabaseException
+      {
+        return loadObjects(collection, cs, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public <T> Collection<T> loadObjects(Collection<T> collection, T object, String externalClauses, Object... externalClausesParameters) throws DatabaseException
+      {
+        Database db = getReadDatabase();
+        
+        try
+          {
+            return db.queryObjectForLoad(object, externalClauses, externalClausesParameters).loadObjects(collection, (Class<T>)object.getClass());
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public <T> Collection<T> loadObjects(Collection<T> collection, Class<T> cs, String externalClauses, Object... externalClausesParameters) throws DatabaseException
+      {
+        Database db = getReadDatabase();
+        
+        try
+          {
+            return db.queryObjectForLoad(cs, externalClauses, externalClausesParameters).loadObjects(collection, cs);
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public void loadAssociations(Object object) throws DatabaseException
+      {
+        Database db = getReadDatabase();
+        
+        try
+          {
+            db.loadAssociations(object);
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public Collection executeQuery(Collection c, String sql) throws DatabaseException
+      {
+        return executeQuery(c, false, sql);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public <T> Collection<T> executeQuery(Collection<T> c, Class<T> cs, String sql) throws DatabaseException
+      {
+        Database db = getReadDatabase();
+        
+        try
+          {
+            Result<T> result = db.executeQuery(cs, sql);
+            
+            try
+              {
+                for (T object : result)
+                  c.add(object);
+              }
+            finally
+              {
+                result.close();
+              }
+            
+            return c;
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public Collection executeQuery(Collection c, boolean singleColumn, String sql) throws DatabaseException
+      {
+        Database db = getReadDatabase();
+        
+        try
+          {
+            Result result = db.executeQuery(sql);
+            
+            try
+              {
+                return ResultSetUtils.loadCollection(result.getResultSet(), c, singleColumn);
+              }
+            finally
+              {
+                result.close();
+              }
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public Collection parameterizedQuery(Collection c, String sql, Object... parameters) throws DatabaseException
+      {
+        return parameterizedQuery(c, false, sql, parameters);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public <T> Collection<T> parameterizedQuery(Collection<T> c, Class<T> cs, String sql, Object... parameters) throws DatabaseException
+      {
+        Database db = getReadDatabase();
+        
+        try
+          {
+            Result<T> result = db.parameterizedQuery(cs, sql, parameters);
+            
+            try
+              {
+                for (T object : result)
+                  c.add(object);
+              }
+            finally
+              {
+                result.close();
+              }
+            
+            return c;
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public Collection parameterizedQuery(Collection c, boolean singleColumn, String sql, Object... parameters) throws DatabaseException
+      {
+        Database db = getReadDatabase();
+        
+        try
+          {
+            Result result = db.parameterizedQuery(sql, parameters);
+            
+            try
+              {
+                return ResultSetUtils.loadCollection(result.getResultSet(), c, singleColumn);
+              }
+            finally
+              {
+                result.close();
+              }
+          }
+        catch (Exception e)
+          {
+            throw new DatabaseException(e);
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public int saveObject(Object object) throws DatabaseException
+      {
+        return saveObject(object, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public int saveObject(Object object, String externalClauses, Object... externalClausesParameters) throws DatabaseException
+      {
+        Database db = getWriteDatabase();
+        
+        try
+          {
+            return db.saveObject(object, externalClauses, externalClausesParameters);
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public int deleteObject(Object object) throws DatabaseException
+      {
+        return deleteObject(object, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public int deleteObject(Object object, String externalClauses, Object... externalClausesParameters) throws DatabaseException
+      {
+        Database db = getWriteDatabase();
+        
+        try
+          {
+            return db.deleteObject(object, externalClauses, externalClausesParameters);
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public int executeUpdate(String sql) throws DatabaseException
+      {
+        return executeUpdate(sql, (List)null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public int executeUpdate(String sql, List keys) throws DatabaseException
+      {
+        Database db = getWriteDatabase();
+        
+        try
+          {
+            return db.executeUpdate(sql, keys);
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public int parameterizedUpdate(String sql, Object... parameters) throws DatabaseException
+      {
+        return parameterizedUpdate(sql, (List)null, parameters);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.
+     */
+    
+    public int parameterizedUpdate(String sql, List keys, Object... parameters) throws DatabaseException
+      {
+        Database db = getWriteDatabase();
+        
+        try
+          {
+            return db.parameterizedUpdate(sql, keys, parameters);
+          }
+        finally
+          {
+            releaseDatabase(db);
+          }
+      }
+
+    /* Non-public access ************************************************************/
+
+    /**
+     * Binds db to this thread as its transaction database, and returns the 
+     * one it replaces (a TransactionManager run inside beginTransaction()), 
+     * or null.
+     */
+
+    Database bindTransaction(Database db)
+      {
+        logger.debug("Binding transaction database to thread");
+        
+        Database previous = transactionDatabase.get();
+
+        transactionDatabase.set(db);
+
+        return previous;
+      }
+
+    /**
+     * Unbinds the transaction database from this thread, restoring the one 
+     * bindTransaction() replaced.
+     */
+
+    void unbindTransaction(Database previous)
+      {
+        logger.debug("Unbinding transaction database from thread");
+        
+        if (previous != null)
+          transactionDatabase.set(previous);
+        else
+          transactionDatabase.remove();
+      }
+
+    private Database getReadDatabase() throws DatabaseException
+      {
+        Database db = transactionDatabase.get();
+        
+        return db != null ? db : getReplica().getDatabase();
+      }
+
+    private Database getWriteDatabase() throws DatabaseException
+      {
+        Database db = transactionDatabase.get();
+        
+        return db != null ? db : primary.getDatabase();
+      }
+
+    private void releaseDatabase(Database db)
+      {
+        if (db != transactionDatabase.get())
+          db.close();
+      }
+  }
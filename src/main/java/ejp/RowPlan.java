@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import ejp.utilities.ObjectConverter;
+import ejp.utilities.PropertyAccessor;
+import ejp.utilities.StringUtils;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A mapping plan for loading objects of one class from rows with one column
+ * signature (see Result.getColumnSignature()).  Resolving setters to columns
+ * (the column mappings, the three name variants ObjectFiller tries, stripped
+ * column names) is done once when the plan is compiled, so loading a row
+ * only reads the planned column indexes and calls the planned setters.
+ * Setters without a column are left out of the plan, and a name variant
+ * without a column is a zero index, so a miss costs nothing on each row
+ * (nothing is thrown and caught).  Plans are cached in the
+ * DatabaseManager.PersistentClassManager.
+ */
+
+final class RowPlan
+  {
+    private TablePlan[] tables;
+    private boolean canPersist;
+
+    /**
+     * A setter and the columns of its name variants, in the order ObjectFiller
+     * tries them.  The first column is always present, later ones are zero
+     * when the variant has no column.
+     */
+    static class Step
+      {
+        Method method;
+        Class type;
+        int reader;
+        boolean convert;
+        int[] columns;
+        Object nullValue;
+      }
+
+    static class TablePlan
+      {
+        Step[] steps;
+        String[] keyNames;
+        int[] keyColumns;
+      }
+
+    private RowPlan() { }
+
+    /**
+     * Compiles the plan for loading objects of objectClass from the columns
+     * of result.
+     */
+
+    static RowPlan compile(Result result, Class objectClass) throws DatabaseException, SQLException, IllegalAccessException, InvocationTargetException, NoSuchMethodException
+      {
+        final RowPlan plan = new RowPlan();
+        final List<TablePlan> tables = new ArrayList<TablePlan>();
+        final Result planResult = result;
+        final MetaData metaData = result.getDatabase().getMetaData();
+        final DatabaseManager.PersistentClassManager classManager = result.getDatabase().getPersistentClassManager();
+
+        ORMSupport.processClasses(result.getDatabase(), objectClass, null, false, false, false, false, true, new ORMSupport.ClassHandler()
+          {
+            public void processClass(Class objectClass, Object object, MetaData.Table table, int numberTables, int tableNumber, Map valuesMap) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException
+              {
+                tables.add(compileTable(planResult, metaData, classManager, objectClass, table, numberTables > 1));
+
+                if (table != null)
+                  plan.canPersist = true;
+              }
+          });
+
+        plan.tables = tables.toArray(new TablePlan[tables.size()]);
+
+        return plan;
+      }
+
+    private static TablePlan compileTable(Result result, MetaData metaData, DatabaseManager.PersistentClassManager classManager, Class objectClass, MetaData.Table table, boolean declaredOnly) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException
+      {
+        TablePlan tablePlan = new TablePlan();
+        List<Step> steps = new ArrayList<Step>();
+        Set<String> memberSet = new HashSet<String>();
+
+        // the same walk as ObjectFiller.fillObject() makes for each row
+        for (Method method : PropertyAccessor.get(objectClass).getMethods())
+          {
+            String methodName = method.getName();
+
+            if ((!declaredOnly || method.getDeclaringClass().equals(objectClass)) && methodName.startsWith("set") && !methodName.equalsIgnoreCase("set"))
+              {
+                String valueName = methodName.substring(3,4).toLowerCase() + methodName.substring(4);
+
+                if (memberSet.add(valueName) && method.getParameterTypes().length == 1)
+                  {
+                    int column = resolveColumn(result, metaData, classManager, objectClass, valueName);
+
+                    // Result.getColumnValue() refuses InputStream and Reader on every row, so those setters are left out rather than failing per row
+                    int reader = Result.getReader(method.getParameterTypes()[0]);
+
+                    if (column > 0 && reader != Result.READ_INPUT_STREAM && reader != Result.READ_READER)
+                      {
+                        Step step = new Step();
+
+                        step.method = method;
+                        step.type = method.getParameterTypes()[0];
+                        step.reader = reader;
+                        step.convert = !Result.isPrimitiveReader(reader);
+                        // SQL NULL sets a primitive to zero (or false), as ObjectConverter always has
+                        step.nullValue = ObjectConverter.convertObject(step.type, null);
+                        step.columns = new int[] { column,
+                                                   resolveColumn(result, metaData, classManager, objectClass, StringUtils.camelCaseToLowerCaseUnderline(valueName)),
+                                                   resolveColumn(result, metaData, classManager, objectClass, valueName.toLowerCase()) };
+                        steps.add(step);
+                      }
+                  }
+              }
+          }
+
+        tablePlan.steps = steps.toArray(new Step[steps.size()]);
+
+        List<String> keyNames = new ArrayList<String>();
+        List<Integer> keyColumns = new ArrayList<Integer>();
+
+        if (table != null)
+          {
+            Set<String> ids = new HashSet<String>();
+
+            ids.addAll(table.getPrimaryKeys().keySet());
+            ids.addAll(table.getImportedKeys().keySet());
+
+            for (String columnName : ids)
+              {
+                Integer columnNumber = result.getColumnNumber(columnName.toLowerCase());
+
+                if (columnNumber != null)
+                  {
+                    keyNames.add(columnName);
+                    keyColumns.add(columnNumber);
+                  }
+              }
+          }
+
+        tablePlan.keyNames = keyNames.toArray(new String[keyNames.size()]);
+        tablePlan.keyColumns = new int[keyColumns.size()];
+
+        for (int i = 0; i < tablePlan.keyColumns.length; i++)
+          tablePlan.keyColumns[i] = keyColumns.get(i);
+
+        return tablePlan;
+      }
+
+    /**
+     * Returns the column for a property name variant, or zero if there isn't
+     * one.  This is how loading has always matched properties to columns.
+     */
+
+    private static int resolveColumn(Result result, MetaData metaData, DatabaseManager.PersistentClassManager classManager, Class objectClass, String key)
+      {
+        String name = classManager.getColumnMapping(objectClass, key);
+
+        if (name == null)
+          name = StringUtils.camelCaseToLowerCaseUnderline(key);
+        else name = name.toLowerCase();
+
+        Integer columnNumber = result.getColumnNumber(metaData.stripColumnName(name));
+
+        if (columnNumber == null)
+          columnNumber = result.getColumnNumber(metaData.stripColumnName(key).toLowerCase());
+
+        return columnNumber != null ? columnNumber : 0;
+      }
+
+    boolean canPersist() { return canPersist; }
+
+    /**
+     * Loads the current row of result into object.
+     */
+
+    void load(Result result, Object object) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException
+      {
+        for (TablePlan tablePlan : tables)
+          {
+            for (Step step : tablePlan.steps)
+              {
+                Object value = null;
+                boolean found = true;
+
+                try
+                  {
+                    value = result.readColumn(step.reader, step.columns[0]);
+
+                    // a null value falls through to the other name variants, and a variant without a column means no value
+                    for (int i = 1; found && value == null && i < step.columns.length; i++)
+                      if (step.columns[i] == 0)
+                        found = false;
+                      else
+                        value = result.readColumn(step.reader, step.columns[i]);
+                  }
+                catch (Exception e) { found = false; } // don't care
+
+                if (found)
+                  PropertyAccessor.setValue(step.method, object, value == null ? step.nullValue : step.convert ? ObjectConverter.convertObject(step.type, value) : value);
+              }
+
+            for (int i = 0; i < tablePlan.keyColumns.length; i++)
+              try
+                {
+                  PersistenceManager.get(object).keyValues.put(tablePlan.keyNames[i], result.getColumnValue(tablePlan.keyColumns[i]));
+                }
+              catch (Exception e) {} // don't care
+          }
+      }
+  }
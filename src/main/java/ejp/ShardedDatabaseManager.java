@@ -0,0 +1,658 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import ejp.interfaces.ShardKeyExtractor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * A ShardedDatabaseManager spreads horizontally partitioned tables across any
+ * number of identical databases (shards), each represented by its own
+ * DatabaseManager (and pool).  A ShardKeyExtractor registered per persistent
+ * class returns the shard key of an object, and the key's hash code picks the
+ * shard that owns it.  saveObject, deleteObject, loadAssociations and loadObject
+ * go to the owning shard.  loadObject and loadObjects without a shard key (a
+ * class, or an example object without the key set) query all shards in
+ * parallel and merge the results in shard order.
+ *
+ * <p>Since the schemas are identical, all shards share the MetaData (table
+ * information and mappings) of the first shard.
+ *
+ * <pre>
+ *   ShardedDatabaseManager sdm = new ShardedDatabaseManager(shard0, shard1, ..., shard7);
+ *
+ *   sdm.setShardKeyExtractor(Customer.class, new ShardKeyExtractor&lt;Customer&gt;()
+ *     {
+ *       public Object getShardKey(Customer customer) { return customer.getCustomerId(); }
+ *     });
+ *
+ *   Customer customer = sdm.loadObject(new Customer("deisenhower"));        // the owning shard
+ *   List&lt;Customer&gt; all = sdm.loadObjects(new ArrayList&lt;Customer&gt;(), Customer.class);  // all shards
+ * </pre>
+ *
+ * <p>Transactions don't span shards; use a TransactionManager on the manager
+ * returned by getShardFor().
+ */
+
+@SuppressWarnings("unchecked")
+public final class ShardedDatabaseManager
+  {
+    private static Logger logger = LoggerFactory.getLogger(ShardedDatabaseManager.class);
+
+    private DatabaseManager[] shards;
+    private ConcurrentHashMap<Class, ShardKeyExtractor> shardKeyExtractors = new ConcurrentHashMap<Class, ShardKeyExtractor>();
+    private volatile MetaData sharedMetaData;
+    private AtomicReferenceArray<MetaData> shardMetaData;
+    private ExecutorService executor;
+
+    /**
+     * Create a ShardedDatabaseManager.  The order of the shards determines
+     * which shard owns a key, so it must be the same every time.
+     *
+     * @param shards the DatabaseManagers for the shards
+     */
+
+    public ShardedDatabaseManager(DatabaseManager... shards)
+      {
+        if (shards.length == 0)
+          throw new IllegalArgumentException("At least one shard is required");
+
+        logger.debug("Creating new ShardedDatabaseManager: shards = {}", shards.length);
+
+        this.shards = shards;
+        this.shardMetaData = new AtomicReferenceArray<MetaData>(shards.length);
+        this.executor = Executors.newFixedThreadPool(shards.length, new ThreadFactory()
+          {
+            public Thread newThread(Runnable runnable)
+              {
+                Thread thread = new Thread(runnable, "ejp-shard-query");
+                thread.setDaemon(true);
+
+                return thread;
+              }
+          });
+      }
+
+    /**
+     * Sets the ShardKeyExtractor for a persistent class (and its subclasses).
+     *
+     * @param cs the persistent class
+     * @param shardKeyExtractor the extractor returning the shard key of instances of cs
+     */
+
+    public <T> void setShardKeyExtractor(Class<T> cs, ShardKeyExtractor<? super T> shardKeyExtractor)
+      {
+        shardKeyExtractors.put(cs, shardKeyExtractor);
+      }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the number of shards
+     */
+
+    public int getShardCount() { return shards.length; }
+
+    /**
+     * Returns the DatabaseManager of the given shard.
+     *
+     * @param shard the shard index
+     *
+     * @return the shard's DatabaseManager
+     */
+
+    public DatabaseManager getShard(int shard) { return shards[shard]; }
+
+    /**
+     * Returns the index of the shard owning the shard key.
+     *
+     * @param shardKey the shard key
+     *
+     * @return the shard index
+     */
+
+    public int getShardIndex(Object shardKey)
+      {
+        int hash = shardKey.hashCode();
+
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards.length;
+      }
+
+    /**
+     * Returns the DatabaseManager of the shard owning the object.
+     *
+     * @param object the persistent object
+     *
+     * @return the owning shard's DatabaseManager
+     *
+     * @throws DatabaseException if the object has no shard key
+     */
+
+    public DatabaseManager getShardFor(Object object) throws DatabaseException
+      {
+        return shards[getOwningShard(object)];
+      }
+
+    /**
+     * Returns a Database from the shard owning the shard key.  The Database
+     * uses the shared MetaData.
+     *
+     * @param shardKey the shard key
+     *
+     * @return an instance of Database
+     *
+     * @throws DatabaseException
+     */
+
+    public Database getDatabase(Object shardKey) throws DatabaseException
+      {
+        return getShardDatabase(getShardIndex(shardKey));
+      }
+
+    /**
+     * Returns the MetaData shared by all shards.
+     *
+     * @return an instance of MetaData
+     *
+     * @throws DatabaseException
+     */
+
+    public MetaData getMetaData() throws DatabaseException
+      {
+        return getSharedMetaData();
+      }
+
+    /**
+     * Closes all shard DatabaseManagers.
+     *
+     * @throws DatabaseException
+     */
+
+    public void close() throws DatabaseException
+      {
+        executor.shutdown();
+
+        for (DatabaseManager shard : shards)
+          shard.close();
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  Without a shard key, all shards are
+     * queried and the object is loaded from the first shard (in shard order)
+     * that has a match.
+     */
+
+    public <T> T loadObject(T object) throws DatabaseException
+      {
+        return loadObject(object, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  All shards are queried, and the first
+     * match (in shard order) is returned.
+     */
+
+    public <T> T loadObject(Class<T> cs) throws DatabaseException
+      {
+        return loadObject(cs, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  Without a shard key, all shards are
+     * queried and the object is loaded from the first shard (in shard order)
+     * that has a match.
+     */
+
+    public <T> T loadObject(final T object, final String externalClauses, final Object... externalClausesParameters) throws DatabaseException
+      {
+        Integer shard = getShardIndexFor(object);
+
+        if (shard != null)
+          {
+            Database db = getShardDatabase(shard);
+
+            try
+              {
+                Result<T> result = db.queryObjectForLoad(object, externalClauses, externalClausesParameters);
+
+                try
+                  {
+                    if (result.hasNext())
+                      return result.next(object);
+                  }
+                finally
+                  {
+                    result.close();
+                  }
+              }
+            finally
+              {
+                db.close();
+              }
+
+            return null;
+          }
+
+        List<Result<T>> results = fanOut(new ShardQuery<Result<T>>()
+          {
+            Result<T> query(Database db) throws DatabaseException
+              {
+                Result<T> result = db.queryObjectForLoad(object, externalClauses, externalClausesParameters);
+
+                return result.hasNext() ? result : null;
+              }
+          }, true);
+
+        try
+          {
+            for (Result<T> result : results)
+              if (result != null)
+                return result.next(object);
+          }
+        finally
+          {
+            for (Result<T> result : results)
+              if (result != null)
+                result.getDatabase().close();
+          }
+
+        return null;
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  All shards are queried, and the first
+     * match (in shard order) is returned.
+     */
+
+    public <T> T loadObject(final Class<T> cs, final String externalClauses, final Object... externalClausesParameters) throws DatabaseException
+      {
+        for (T object : fanOut(new ShardQuery<T>()
+          {
+            T query(Database db) throws DatabaseException
+              {
+                Result<T> result = db.queryObjectForLoad(cs, externalClauses, externalClausesParameters);
+
+                try
+                  {
+                    return result.hasNext() ? result.next() : null;
+                  }
+                finally
+                  {
+                    result.close();
+                  }
+              }
+          }, false))
+          if (object != null)
+            return object;
+
+        return null;
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  Without a shard key, all shards are
+     * queried and the results are added in shard order.
+     */
+
+    public <T> Collection<T> loadObjects(Collection<T> collection, T object) throws DatabaseException
+      {
+        return loadObjects(collection, object, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  All shards are queried and the results
+     * are added in shard order.
+     */
+
+    public <T> Collection<T> loadObjects(Collection<T> collection, Class<T> cs) throws DatabaseException
+      {
+        return loadObjects(collection, cs, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  Without a shard key, all shards are
+     * queried and the results are added in shard order.
+     */
+
+    public <T> Collection<T> loadObjects(Collection<T> collection, final T object, final String externalClauses, final Object... externalClausesParameters) throws DatabaseException
+      {
+        final Class<T> cs = (Class<T>)object.getClass();
+        Integer shard = getShardIndexFor(object);
+
+        if (shard != null)
+          {
+            Database db = getShardDatabase(shard);
+
+            try
+              {
+                return db.queryObjectForLoad(object, externalClauses, externalClausesParameters).loadObjects(collection, cs);
+              }
+            finally
+              {
+                db.close();
+              }
+          }
+
+        for (List<T> list : fanOut(new ShardQuery<List<T>>()
+          {
+            List<T> query(Database db) throws DatabaseException
+              {
+                return (List<T>)db.queryObjectForLoad(object, externalClauses, externalClausesParameters).loadObjects(new ArrayList<T>(), cs);
+              }
+          }, false))
+          collection.addAll(list);
+
+        return collection;
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  All shards are queried and the results
+     * are added in shard order.
+     */
+
+    public <T> Collection<T> loadObjects(Collection<T> collection, final Class<T> cs, final String externalClauses, final Object... externalClausesParameters) throws DatabaseException
+      {
+        for (List<T> list : fanOut(new ShardQuery<List<T>>()
+          {
+            List<T> query(Database db) throws DatabaseException
+              {
+                return (List<T>)db.queryObjectForLoad(cs, externalClauses, externalClausesParameters).loadObjects(new ArrayList<T>(), cs);
+              }
+          }, false))
+          collection.addAll(list);
+
+        return collection;
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  The object must have a shard key.
+     */
+
+    public void loadAssociations(Object object) throws DatabaseException
+      {
+        Database db = getShardDatabase(getOwningShard(object));
+
+        try
+          {
+            db.loadAssociations(object);
+          }
+        finally
+          {
+            db.close();
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  The object must have a shard key.
+     */
+
+    public int saveObject(Object object) throws DatabaseException
+      {
+        return saveObject(object, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  The object must have a shard key.
+     */
+
+    public int saveObject(Object object, String externalClauses, Object... externalClausesParameters) throws DatabaseException
+      {
+        Database db = getShardDatabase(getOwningShard(object));
+
+        try
+          {
+            return db.saveObject(object, externalClauses, externalClausesParameters);
+          }
+        finally
+          {
+            db.close();
+          }
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  The object must have a shard key.
+     */
+
+    public int deleteObject(Object object) throws DatabaseException
+      {
+        return deleteObject(object, null, (Object[])null);
+      }
+
+    /**
+     * See same in ejp.DatabaseManager.  The object must have a shard key.
+     */
+
+    public int deleteObject(Object object, String externalClauses, Object... externalClausesParameters) throws DatabaseException
+      {
+        Database db = getShardDatabase(getOwningShard(object));
+
+        try
+          {
+            return db.deleteObject(object, externalClauses, externalClausesParameters);
+          }
+        finally
+          {
+            db.close();
+          }
+      }
+
+    /* Non-public access ************************************************************/
+
+    private abstract static class ShardQuery<R>
+      {
+        abstract R query(Database db) throws DatabaseException;
+      }
+
+    /**
+     * Runs the query on every shard in parallel, and returns the results in
+     * shard order.  If keepDatabase is true, a non-null result is expected to be
+     * an open Result, whose Database the caller must close; otherwise the 
+     * Database is closed when the query returns.  Open results are filled only 
+     * after every shard has built its query, so the queries can safely read 
+     * the same example object.  If the caller is interrupted, the databases 
+     * kept so far, and any kept by queries finishing later, are closed.
+     */
+
+    private <R> List<R> fanOut(final ShardQuery<R> shardQuery, final boolean keepDatabase) throws DatabaseException
+      {
+        List<Callable<R>> tasks = new ArrayList<Callable<R>>(shards.length);
+        List<R> results = new ArrayList<R>(shards.length);
+        DatabaseException exception = null;
+        final List<Database> keptDatabases = new ArrayList<Database>();
+        final AtomicBoolean abandoned = new AtomicBoolean();
+
+        for (int i = 0; i < shards.length; i++)
+          {
+            final int shard = i;
+            final long deadline = shards[i].getDeadline(); // the caller's deadline follows the query to the executor
+
+            tasks.add(new Callable<R>()
+              {
+                public R call() throws DatabaseException
+                  {
+                    shards[shard].setDeadline(deadline);
+
+                    try
+                      {
+                        Database db = getShardDatabase(shard);
+                        R result = null;
+
+                        try
+                          {
+                            return result = shardQuery.query(db);
+                          }
+                        finally
+                          {
+                            if (!keepDatabase || result == null)
+                              db.close();
+                            else
+                              synchronized (keptDatabases)
+                                {
+                                  if (abandoned.get())
+                                    db.close(); // nobody is left to close the result
+                                  else
+                                    keptDatabases.add(db);
+                                }
+                          }
+                      }
+                    finally
+                      {
+                        shards[shard].clearDeadline();
+                      }
+                  }
+              });
+          }
+
+        try
+          {
+            for (Future<R> future : executor.invokeAll(tasks))
+              try
+                {
+                  results.add(future.get());
+                }
+              catch (ExecutionException e)
+                {
+                  results.add(null);
+
+                  if (exception == null)
+                    exception = e.getCause() instanceof DatabaseException ? (DatabaseException)e.getCause() : new DatabaseException(e.getCause());
+                }
+          }
+        catch (InterruptedException e)
+          {
+            synchronized (keptDatabases)
+              {
+                abandoned.set(true);
+
+                for (Database db : keptDatabases)
+                  db.close();
+              }
+
+            Thread.currentThread().interrupt();
+
+            throw new DatabaseException(e);
+          }
+
+        if (exception != null)
+          {
+            if (keepDatabase)
+              for (R result : results)
+                if (result != null)
+                  ((Result)result).getDatabase().close();
+
+            throw exception;
+          }
+
+        return results;
+      }
+
+    /**
+     * Returns shard 0's MetaData, reading it the first time.  No lock is held 
+     * while borrowing from shard 0 and no other database is held either, so 
+     * threads holding shard 0 databases can't be stuck behind the first read.  
+     * If two threads race, the first one to finish wins.
+     */
+
+    private MetaData getSharedMetaData() throws DatabaseException
+      {
+        MetaData metaData = sharedMetaData;
+
+        if (metaData == null)
+          {
+            Database first = shards[0].getDatabase();
+
+            try
+              {
+                metaData = first.getMetaData();
+              }
+            finally
+              {
+                first.close();
+              }
+
+            synchronized (this)
+              {
+                if (sharedMetaData == null)
+                  shardMetaData.set(0, sharedMetaData = metaData);
+
+                metaData = sharedMetaData;
+              }
+          }
+
+        return metaData;
+      }
+
+    private Database getShardDatabase(int shard) throws DatabaseException
+      {
+        MetaData metaData = getSharedMetaData();
+        Database db = shards[shard].getDatabase();
+
+        try
+          {
+            if (shardMetaData.get(shard) != metaData)
+              {
+                shards[shard].pinMetaData(metaData);
+                db.setMetaData(metaData);
+                shardMetaData.set(shard, metaData);
+              }
+          }
+        catch (Exception e)
+          {
+            db.close();
+
+            throw e instanceof DatabaseException ? (DatabaseException)e : new DatabaseException(e);
+          }
+
+        return db;
+      }
+
+    private Integer getShardIndexFor(Object object) throws DatabaseException
+      {
+        ShardKeyExtractor extractor = null;
+
+        for (Class cs = object.getClass(); cs != null && extractor == null; cs = cs.getSuperclass())
+          extractor = shardKeyExtractors.get(cs);
+
+        if (extractor == null)
+          throw new DatabaseException("No ShardKeyExtractor is set for " + object.getClass().getName());
+
+        Object shardKey = extractor.getShardKey(object);
+
+        return shardKey != null ? getShardIndex(shardKey) : null;
+      }
+
+    private int getOwningShard(Object object) throws DatabaseException
+      {
+        Integer shard = getShardIndexFor(object);
+
+        if (shard == null)
+          throw new DatabaseException("No shard key is set for " + object.getClass().getName());
+
+        return shard;
+      }
+  }
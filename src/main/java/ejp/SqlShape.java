@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license 
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not, 
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shape of an ORM generated SQL statement: the operation, the tables, 
+ * and the ordered columns with how each one is used (" = ?", " like ?", 
+ * " is null", etc.).  Statements with the same shape have the same SQL text, 
+ * so ORMSupport looks the text up by shape (see MetaData.getSql()) instead of 
+ * building it for every save, delete and query.  Tables and columns compare 
+ * by identity, which is enough since MetaData hands out one instance of each.
+ */
+
+final class SqlShape
+  {
+    private List<Object> parts = new ArrayList<Object>();
+    private int hash = 1;
+
+    SqlShape(Object operation)
+      {
+        add(operation);
+      }
+
+    SqlShape add(Object part)
+      {
+        parts.add(part);
+        hash = 31 * hash + (part == null ? 0 : part.hashCode());
+
+        return this;
+      }
+
+    public int hashCode() { return hash; }
+
+    public boolean equals(Object object)
+      {
+        if (this == object)
+          return true;
+
+        if (!(object instanceof SqlShape))
+          return false;
+
+        SqlShape shape = (SqlShape)object;
+
+        return hash == shape.hash && parts.equals(shape.parts);
+      }
+  }
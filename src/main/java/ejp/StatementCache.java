@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * A bounded, least recently used cache of prepared and callable statements for one pooled
+ * connection.  It lives as long as the connection does, so statements survive
+ * Database.close() and DatabaseManager.getDatabase() cycles.  Statements are
+ * keyed by SQL, result set type and concurrency, and generated keys mode, and
+ * are closed when they're evicted or the cache is cleared.  A statement the
+ * database is still using (its current statement, or one backing an open
+ * Result) isn't evicted; the next older one is, and if every statement is in
+ * use the cache grows past its size until they're released.  Hits and misses
+ * are counted in counters shared by all caches of a DatabaseManager.
+ */
+
+final class StatementCache
+  {
+    private static Logger logger = LoggerFactory.getLogger(StatementCache.class);
+
+    private Database db;
+    private int maxSize;
+    private AtomicLong hitCount, missCount;
+    private IdentityHashMap<Statement, Entry> statements = new IdentityHashMap<Statement, Entry>();
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    static class Entry
+      {
+        PreparedStatement statement;
+        StatementSettings settings = new StatementSettings();
+        CallableBinder binder;
+
+        Entry(PreparedStatement statement)
+          {
+            this.statement = statement;
+          }
+      }
+
+    StatementCache(Database db, int maxSize, AtomicLong hitCount, AtomicLong missCount)
+      {
+        this.db = db;
+        this.maxSize = maxSize;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+      }
+
+    static String key(String sql, int resultSetType, int resultSetConcurrency, String keysMode)
+      {
+        return resultSetType + "," + resultSetConcurrency + "," + keysMode + ":" + sql;
+      }
+
+    int getMaxSize() { return maxSize; }
+
+    int size() { return entries.size(); }
+
+    Entry get(String key)
+      {
+        Entry entry = entries.get(key);
+
+        if (entry != null)
+          hitCount.incrementAndGet();
+        else
+          missCount.incrementAndGet();
+
+        return entry;
+      }
+
+    Entry put(String key, PreparedStatement statement)
+      {
+        Entry entry = new Entry(statement);
+
+        entries.put(key, entry);
+        statements.put(statement, entry);
+
+        if (entries.size() > maxSize)
+          for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); )
+            {
+              Entry eldest = it.next();
+
+              if (!db.isStatementInUse(eldest.statement))
+                {
+                  it.remove();
+                  statements.remove(eldest.statement);
+
+                  logger.debug("Evicting cached statement");
+
+                  close(eldest.statement);
+
+                  break;
+                }
+            }
+
+        return entry;
+      }
+
+    boolean contains(Statement statement)
+      {
+        return statement != null && statements.containsKey(statement);
+      }
+
+    void clear()
+      {
+        for (Entry entry : entries.values())
+          close(entry.statement);
+
+        entries.clear();
+        statements.clear();
+      }
+
+    private static void close(Statement statement)
+      {
+        try
+          {
+            statement.close();
+          }
+        catch (Exception e) { } // don't care, it's being discarded
+      }
+  }
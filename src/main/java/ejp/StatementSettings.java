@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license 
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not, 
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Remembers the values that have been applied to a statement, so that a 
+ * reused statement only gets the JDBC setters whose value actually changed 
+ * (on some drivers each setter is a round trip to the server).  A null 
+ * desired value means "leave the statement alone", as it always has.  A time
+ * budget (the seconds left before a deadline) caps the query timeout, and the
+ * timeout is put back once a later use has no deadline.  A value is only
+ * remembered once its setter has accepted it.
+ */
+
+final class StatementSettings
+  {
+    private Integer fetchSize, maxRows, maxFieldSize, queryTimeout, fetchDirection;
+    private String cursorName;
+    private Boolean escapeProcessing;
+    private boolean budgeted;
+
+    void apply(Statement statement, Integer fetchSize, Integer maxRows, String cursorName, Boolean escapeProcessing, 
+               Integer maxFieldSize, Integer queryTimeout, Integer fetchDirection, int timeBudget) throws SQLException
+      {
+        if (timeBudget > 0)
+          queryTimeout = queryTimeout != null && queryTimeout > 0 ? Math.min(queryTimeout, timeBudget) : timeBudget;
+        else if (budgeted && queryTimeout == null)
+          queryTimeout = 0;
+
+        if (fetchSize != null && !fetchSize.equals(this.fetchSize))
+          {
+            statement.setFetchSize(fetchSize);
+            this.fetchSize = fetchSize;
+          }
+
+        if (maxRows != null && !maxRows.equals(this.maxRows))
+          {
+            statement.setMaxRows(maxRows);
+            this.maxRows = maxRows;
+          }
+
+        if (cursorName != null && !cursorName.equals(this.cursorName))
+          {
+            statement.setCursorName(cursorName);
+            this.cursorName = cursorName;
+          }
+
+        if (escapeProcessing != null && !escapeProcessing.equals(this.escapeProcessing))
+          {
+            statement.setEscapeProcessing(escapeProcessing);
+            this.escapeProcessing = escapeProcessing;
+          }
+
+        if (maxFieldSize != null && !maxFieldSize.equals(this.maxFieldSize))
+          {
+            statement.setMaxFieldSize(maxFieldSize);
+            this.maxFieldSize = maxFieldSize;
+          }
+
+        if (queryTimeout != null && !queryTimeout.equals(this.queryTimeout))
+          {
+            statement.setQueryTimeout(queryTimeout);
+            this.queryTimeout = queryTimeout;
+          }
+
+        budgeted = timeBudget > 0;
+
+        if (fetchDirection != null && !fetchDirection.equals(this.fetchDirection))
+          {
+            statement.setFetchDirection(fetchDirection);
+            this.fetchDirection = fetchDirection;
+          }
+      }
+  }
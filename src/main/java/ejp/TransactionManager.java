@@ -42,6 +42,9 @@ import java.sql.Savepoint;
 public abstract class TransactionManager
   {
     Database database;
+    RoutingDatabaseManager routingDatabaseManager;
+    private Database outerTransaction;
+    private boolean isBound;
     boolean closeDatabase;
 
     /**
@@ -51,7 +54,34 @@ public abstract class TransactionManager
      */
     public TransactionManager(DatabaseManager databaseManager) throws DatabaseException
       {
-        this.database = databaseManager.getDatabase();
+        this(databaseManager, DatabaseManager.PRIORITY_INTERACTIVE);
+      }
+
+    /**
+     * Construct a TransactionManager with a database manager, borrowing the 
+     * database with the given priority.
+     *
+     * @param databaseManager a ejp.DatabaseManager instance
+     * @param priority DatabaseManager.PRIORITY_INTERACTIVE or DatabaseManager.PRIORITY_BATCH
+     */
+    public TransactionManager(DatabaseManager databaseManager, int priority) throws DatabaseException
+      {
+        this.database = databaseManager.getDatabase(priority);
+        closeDatabase = true;
+      }
+
+    /**
+     * Construct a TransactionManager with a routing database manager.  The 
+     * transaction runs on the primary, and while it runs, calls this thread 
+     * makes on the routing database manager (reads included) use the 
+     * transaction's database.
+     *
+     * @param routingDatabaseManager a ejp.RoutingDatabaseManager instance
+     */
+    public TransactionManager(RoutingDatabaseManager routingDatabaseManager) throws DatabaseException
+      {
+        this.database = routingDatabaseManager.getDatabase();
+        this.routingDatabaseManager = routingDatabaseManager;
         closeDatabase = true;
       }
 
@@ -148,6 +178,7 @@ public abstract class TransactionManager
         try
           {
             database.beginTransaction();
+            bindTransaction();
             
             run();
           }
@@ -159,10 +190,31 @@ public abstract class TransactionManager
           }
         finally
           {
+            unbindTransaction();
             database.endTransaction();
             
             if (closeDatabase)
               database.close();
           }
       }
+
+    void bindTransaction()
+      {
+        if (routingDatabaseManager != null)
+          {
+            outerTransaction = routingDatabaseManager.bindTransaction(database);
+            isBound = true;
+          }
+      }
+
+    void unbindTransaction()
+      {
+        // restores the binding of a transaction this one runs inside, and does nothing if binding never happened
+        if (isBound)
+          {
+            routingDatabaseManager.unbindTransaction(outerTransaction);
+            outerTransaction = null;
+            isBound = false;
+          }
+      }
   }
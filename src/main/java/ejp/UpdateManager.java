@@ -51,6 +51,30 @@ public abstract class UpdateManager extends TransactionManager
         super(databaseManager);
       }
 
+    /**
+     * Construct an UpdateManager with a database manager, borrowing the 
+     * database with the given priority.  Nightly or other long running batch 
+     * jobs should use DatabaseManager.PRIORITY_BATCH.
+     *
+     * @param databaseManager a ejp.DatabaseManager instance
+     * @param priority DatabaseManager.PRIORITY_INTERACTIVE or DatabaseManager.PRIORITY_BATCH
+     */
+    public UpdateManager(DatabaseManager databaseManager, int priority) throws DatabaseException
+      {
+        super(databaseManager, priority);
+      }
+
+    /**
+     * Construct an UpdateManager with a routing database manager.  The updates 
+     * run on the primary.
+     *
+     * @param routingDatabaseManager a ejp.RoutingDatabaseManager instance
+     */
+    public UpdateManager(RoutingDatabaseManager routingDatabaseManager) throws DatabaseException
+      {
+        super(routingDatabaseManager);
+      }
+
     /**
      * Construct an UpdateManager with a database.
      *
@@ -88,6 +112,7 @@ public abstract class UpdateManager extends TransactionManager
           {
             database.beginTransaction();
             database.beginBatch();
+            bindTransaction();
             
             run();
           }
@@ -100,6 +125,7 @@ public abstract class UpdateManager extends TransactionManager
           }
         finally
           {
+            unbindTransaction();
             database.executeBatch();
             
             updateCounts = database.getBatchUpdateCounts();
@@ -111,13 +111,16 @@ public class EjpResultExamples
       }
     
     /*
-     * Result cursors are bidirectional.  You can use hasNext, next, 
+     * Result cursors are forward only by default.  With a scrollable result 
+     * set type they're bidirectional, and you can use hasNext, next, 
      * hasPrevious, previous, isFirst, first, isLast, last, isBeforeFirst, 
      * beforeFirst, isAfterLast, afterLast.  You can also use Iterator and 
      * ListIterator.
      */
     static void movingBackAndForth(Database db) throws DatabaseException
       {
+        db.setResultSetType(ResultSet.TYPE_SCROLL_INSENSITIVE);
+
         Result<Order> result = db.queryObject(Order.class);
 
         while (result.hasNext())
@@ -51,9 +51,10 @@ public class IntroducingEjp
      * objects and collections from queries, while ejp.Database returns ejp.Result (a database cursor) from 
      * queries.  
      * 
-     * ejp.Result is a bidirectional database cursor (wraps java.sql.ResultSet), and can be 
-     * used to iterate trough huge query result sets.  ejp.Result also implements ListIterator and Iterable, 
-     * so you can use next() and previous(), and you can use ejp.Result in a foreach statement.  next() and 
+     * ejp.Result is a database cursor (wraps java.sql.ResultSet), and can be used to iterate trough huge 
+     * query result sets.  It's forward only unless you set a scrollable result set type.  ejp.Result also 
+     * implements ListIterator and Iterable, so you can use next() and previous() (scrollable), and you can 
+     * use ejp.Result in a foreach statement.  next() and 
      * previous() return newly created instances of whatever class is associated with the ejp.Result instance.  
      * Since ejp.Result is a database resource, it needs to be closed as soon as you are done with it.  All 
      * ejp.Results are closed automatically when closing ejp.Database.
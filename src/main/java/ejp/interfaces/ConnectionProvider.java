@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license 
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not, 
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp.interfaces;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * This interface supplies connections to a DatabaseManager.  EJP provides 
+ * implementations for java.sql.DriverManager (ejp.DriverManagerConnectionProvider),
+ * javax.sql.DataSource (ejp.DataSourceConnectionProvider) and JNDI 
+ * (ejp.JndiConnectionProvider), but any source of connections can be plugged 
+ * in with DatabaseManager(String, int, ConnectionProvider).
+ */
+
+public interface ConnectionProvider 
+  {
+    /**
+     * Returns a new (or externally pooled) connection.
+     *
+     * @return a JDBC connection
+     *
+     * @throws SQLException
+     */
+    Connection getConnection() throws SQLException;
+
+    /**
+     * Returns true if the DatabaseManager should keep connections open in its 
+     * pool between uses.  If false, the connection is closed (returned to the 
+     * provider) each time a Database is closed, and a new one is obtained on 
+     * the next DatabaseManager.getDatabase().
+     *
+     * @return true if EJP should pool the connections
+     */
+    boolean isPooling();
+  }
@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license 
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not, 
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp.interfaces;
+
+/**
+ * This interface extracts the shard key (a customer id, for example) from a 
+ * persistent object, so that ejp.ShardedDatabaseManager can route the object 
+ * to the shard that owns it.  Extractors are registered per class with 
+ * ShardedDatabaseManager.setShardKeyExtractor().
+ */
+
+public interface ShardKeyExtractor<T>
+  {
+    /**
+     * Returns the shard key of the object, or null if the object doesn't 
+     * have one (a query by example without the key set, for instance).  Equal 
+     * keys must have equal hash codes.
+     *
+     * @param object the persistent object
+     *
+     * @return the shard key or null
+     */
+    Object getShardKey(T object);
+  }
@@ -30,6 +30,13 @@ public class ObjectFiller
   {
     public static ItemNotFoundException itemNotFoundException = new ItemNotFoundException();
 
+    /**
+     * Returned (cast to the requested type) by a GetHandler that has no value 
+     * for a key, in place of throwing ItemNotFoundException.  Unlike null, it 
+     * doesn't set the member, and unlike the exception it costs nothing.
+     */
+    public static final Object NOT_FOUND = new Object();
+
   /**
    * Fill the object with values from the given getHandler.
    * 
@@ -98,7 +105,7 @@ public class ObjectFiller
         
         if (fillPublicSetMethods)
           {
-            Method[] methods = c != null ? c.getMethods() : object.getClass().getMethods();
+            Method[] methods = PropertyAccessor.get(c != null ? c : object.getClass()).getMethods();
             Method method = null;
             String methodName = null;
             String valueName = null;
@@ -129,8 +136,8 @@ public class ObjectFiller
                                 if (value == null)
                                   value = getHandler.get(valueName.toLowerCase(), method.getParameterTypes()[0]);
 
-                                if ((setNulls || value != null) && method.getParameterTypes() != null && method.getParameterTypes().length == 1)
-                                  method.invoke(object, new Object[] { ObjectConverter.convertObject(method.getParameterTypes()[0], value) });
+                                if (value != NOT_FOUND && (setNulls || value != null) && method.getParameterTypes() != null && method.getParameterTypes().length == 1)
+                                  PropertyAccessor.setValue(method, object, ObjectConverter.convertObject(method.getParameterTypes()[0], value));
                               }
                             catch (ItemNotFoundException e) { }
                           }
@@ -165,7 +172,7 @@ public class ObjectFiller
                             if (value == null)
                               value = getHandler.get(StringUtils.camelCaseToLowerCaseUnderline(fieldName), fields[i].getType());
 
-                            if (setNulls || value != null)
+                            if (value != NOT_FOUND && (setNulls || value != null))
                               fields[i].set(object, new Object[] { ObjectConverter.convertObject(fields[i].getType(), value) });
                           }
                         catch (ItemNotFoundException e) { }
@@ -180,8 +187,8 @@ public class ObjectFiller
     /**
      * Implement this interface for ObjectFiller to gain access to your data.
      * If your object has a field that doesn't match up to data, 
-     * throw ItemNotFoundException instead of returning null so ObjectFiller 
-     * doesn't set the field to null.
+     * return NOT_FOUND (or throw ItemNotFoundException) instead of returning 
+     * null so ObjectFiller doesn't set the field to null.
      */
     public interface GetHandler
       {
@@ -191,6 +198,11 @@ public class ObjectFiller
     public static class ItemNotFoundException extends Exception
       {
         private static final long serialVersionUID = 100L;
+
+        /**
+         * A miss isn't an error, so there's no stack trace to fill in.
+         */
+        public synchronized Throwable fillInStackTrace() { return this; }
       }
   }
 
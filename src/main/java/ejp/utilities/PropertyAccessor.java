@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2006 - present David Bulmore
+ * All Rights Reserved.
+ *
+ * This file is part of Easy Java Persistence.
+ *
+ * EJP is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the accompanying license
+ * for more details.
+ *
+ * You should have received a copy of the license along with EJP; if not,
+ * go to http://www.EasierJava.com and download the latest version.
+ */
+
+package ejp.utilities;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cached accessors for the get and set methods and the empty constructor of
+ * a class.  They're looked up once per class (Class.getMethods() copies its
+ * array on every call) and made accessible, so calls skip the access checks
+ * that reflection otherwise makes on each call.  Where making them
+ * accessible isn't allowed, the methods are called with the usual checks.
+ * (MethodHandles would need Java 7, and EJP still targets Java 6.)
+ *
+ * <p>Accessors of classes from EJP's class loader (or its parents) are kept
+ * for good, since those classes live as long as EJP does.  Those of other
+ * classes (a web application's, say) are held weakly, so they don't keep the
+ * class, or its class loader, from being unloaded, and are rebuilt if the
+ * garbage collector has cleared them.
+ */
+
+@SuppressWarnings("unchecked")
+public final class PropertyAccessor
+  {
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    private static final ClassLoader classLoader = PropertyAccessor.class.getClassLoader();
+    private static ConcurrentHashMap<Class, PropertyAccessor> accessors = new ConcurrentHashMap<Class, PropertyAccessor>();
+    private static Map<Class, Reference<PropertyAccessor>> otherAccessors = Collections.synchronizedMap(new WeakHashMap<Class, Reference<PropertyAccessor>>());
+
+    private Class objectClass;
+    private Constructor constructor;
+    private Method[] methods, getters, setters;
+
+    private PropertyAccessor(Class objectClass)
+      {
+        List<Method> getterList = new ArrayList<Method>(), setterList = new ArrayList<Method>();
+
+        this.objectClass = objectClass;
+        this.methods = objectClass.getMethods();
+
+        for (Method method : methods)
+          {
+            makeAccessible(method);
+
+            if (method.getName().startsWith("get") && method.getParameterTypes().length == 0)
+              getterList.add(method);
+            else if (method.getName().startsWith("set") && method.getParameterTypes().length == 1)
+              setterList.add(method);
+          }
+
+        getters = getterList.toArray(new Method[getterList.size()]);
+        setters = setterList.toArray(new Method[setterList.size()]);
+
+        try
+          {
+            constructor = objectClass.getConstructor();
+
+            makeAccessible(constructor);
+          }
+        catch (Exception e) { } // newInstance() falls back to Class.newInstance()
+      }
+
+    private static void makeAccessible(AccessibleObject member)
+      {
+        try
+          {
+            member.setAccessible(true);
+          }
+        catch (RuntimeException e) { } // a security manager (or module) says no, use the checked path
+      }
+
+    /**
+     * Returns the accessor for objectClass.
+     *
+     * @param objectClass the class
+     *
+     * @return the accessor
+     */
+
+    public static PropertyAccessor get(Class objectClass)
+      {
+        PropertyAccessor accessor = accessors.get(objectClass);
+
+        if (accessor == null)
+          {
+            if (!isVisible(objectClass))
+              return getOther(objectClass);
+
+            PropertyAccessor existing = accessors.putIfAbsent(objectClass, accessor = new PropertyAccessor(objectClass));
+
+            if (existing != null)
+              accessor = existing;
+          }
+
+        return accessor;
+      }
+
+    private static PropertyAccessor getOther(Class objectClass)
+      {
+        Reference<PropertyAccessor> reference = otherAccessors.get(objectClass);
+        PropertyAccessor accessor = reference != null ? reference.get() : null;
+
+        if (accessor == null)
+          otherAccessors.put(objectClass, new WeakReference<PropertyAccessor>(accessor = new PropertyAccessor(objectClass)));
+
+        return accessor;
+      }
+
+    /**
+     * Returns true if cs is from EJP's class loader or one of its parents, 
+     * so it lives as long as EJP does.
+     */
+
+    private static boolean isVisible(Class cs)
+      {
+        if (cs.isPrimitive() || cs.getClassLoader() == null)
+          return true;
+
+        try
+          {
+            for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent())
+              if (loader == cs.getClassLoader())
+                return true;
+          }
+        catch (SecurityException e) { } // not allowed to look, so not visible
+
+        return false;
+      }
+
+    /**
+     * Returns the class.
+     *
+     * @return the class
+     */
+
+    public Class getObjectClass() { return objectClass; }
+
+    /**
+     * Returns the public methods of the class (the same as Class.getMethods()).
+     * The array is shared and must not be modified.
+     *
+     * @return the public methods
+     */
+
+    public Method[] getMethods() { return methods; }
+
+    /**
+     * Returns the public methods starting with "get" that take no parameters.
+     * The array is shared and must not be modified.
+     *
+     * @return the get methods
+     */
+
+    public Method[] getGetters() { return getters; }
+
+    /**
+     * Returns the public methods starting with "set" that take one parameter.
+     * The array is shared and must not be modified.
+     *
+     * @return the set methods
+     */
+
+    public Method[] getSetters() { return setters; }
+
+    /**
+     * Returns a new instance of the class, using its public empty constructor.
+     *
+     * @return a new instance
+     */
+
+    public <T> T newInstance() throws InstantiationException, IllegalAccessException, InvocationTargetException
+      {
+        if (constructor == null)
+          return (T)objectClass.newInstance();
+
+        return (T)constructor.newInstance(NO_ARGUMENTS);
+      }
+
+    /**
+     * Calls a get method.
+     *
+     * @param getter the get method
+     * @param object the object
+     *
+     * @return the value returned by the get method
+     */
+
+    public static Object getValue(Method getter, Object object) throws IllegalAccessException, InvocationTargetException
+      {
+        return getter.invoke(object, NO_ARGUMENTS);
+      }
+
+    /**
+     * Calls a set method.
+     *
+     * @param setter the set method
+     * @param object the object
+     * @param value the value to set
+     */
+
+    public static void setValue(Method setter, Object object, Object value) throws IllegalAccessException, InvocationTargetException
+      {
+        setter.invoke(object, value);
+      }
+  }
@@ -164,7 +164,9 @@ public class ResultSetUtils
     /**
      * Loads a collection with row data from the result set.  If the rows have more than one value, 
      * then a collection of collections (of the same type) is created, otherwise depending on the 
-     * value of singleObject, a collection of a given object is created.
+     * value of singleObject, a collection of a given object is created.  For large scans of a few 
+     * numeric or string columns, Result.loadColumns() (see ejp.Columns) holds the values in primitive 
+     * arrays instead.
      *
      * @param resultSet a valid result set
      * @param c the collection to load with the result set data